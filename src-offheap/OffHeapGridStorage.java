@@ -0,0 +1,215 @@
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A GridStorage that keeps the grid in native memory, outside of
+ * the Java heap. Each position holds a 4-byte handle of the Vehicle
+ * on it, 0 if unoccupied, and positions are indexed with longs, so
+ * grids may have more than 2^31 positions. The low bits of a handle
+ * index a table of the live vehicles, which is all the storage keeps
+ * on the heap, so the garbage collector's work depends on the number
+ * of vehicles rather than the size of the grid. Positions are updated
+ * atomically through a VarHandle. A freed slot of the table is only
+ * given out again once many others have been freed after it, and each
+ * time with the next generation in the high bits of its handle. get
+ * checks the position still holds the handle it looked up, so a reader
+ * racing a removal could only see a Vehicle from elsewhere on the grid
+ * if the slot was reused 1024 times, with 1024 slots freed before each
+ * reuse, between its two reads of the position. The memory is released
+ * by close, after which the storage can't be used. The Foreign
+ * Memory API is final since JDK 22 and a preview in JDK 21, so this
+ * class is kept in a source root of its own and only loaded by
+ * GridSimulator when it is asked for.
+ *
+ * @author Boyan Stoynov
+ */
+public class OffHeapGridStorage implements GridStorage {
+    /* VarHandle for atomic updates of the handle on each position */
+    private static final VarHandle CELL = cellHandle();
+    /* Handle of an unoccupied position */
+    private static final int EMPTY = 0;
+    /* Number of slots freed after a slot before it is reused */
+    private static final int REUSE_DELAY = 1024;
+    /* Number of low bits of a handle holding its slot */
+    private static final int SLOT_BITS = 22;
+    /* Mask of the slot bits of a handle */
+    private static final int SLOT_MASK = (1 << SLOT_BITS) - 1;
+
+    /* Number of rows */
+    private final int rows;
+    /* Number of columns */
+    private final int columns;
+    /* Arena the native memory is allocated in */
+    private final Arena arena;
+    /* Handle of the Vehicle on each position, row after row */
+    private final MemorySegment cells;
+    /* Vehicle of each slot, replaced by a larger table when full */
+    private volatile AtomicReferenceArray<Vehicle> vehicles;
+    /* Ring of the next handles of slots given back by vehicles that
+     * left, oldest first, guarded by this object */
+    private int[] freeHandles;
+    /* Index of the oldest free handle in the ring */
+    private int freeHead;
+    /* Number of free handles */
+    private int freeCount;
+    /* Lowest slot never given out, guarded by this object */
+    private int nextSlot;
+
+    /**
+     * Creates an empty OffHeapGridStorage object.
+     * @param rows number of rows
+     * @param columns number of columns
+     */
+    public OffHeapGridStorage(int rows, int columns) {
+        this.rows = rows;
+        this.columns = columns;
+        arena = Arena.ofShared();
+        // Native memory allocated by an arena is zeroed, so every position starts EMPTY
+        cells = arena.allocate(ValueLayout.JAVA_INT.byteSize() * rows * columns, ValueLayout.JAVA_INT.byteAlignment());
+        vehicles = new AtomicReferenceArray<>(1024);
+        freeHandles = new int[2 * REUSE_DELAY];
+        // Handle 0 marks unoccupied positions, so slot 0 is never used
+        nextSlot = 1;
+    }
+
+    /**
+     * Returns a VarHandle accessing the ints of a segment by
+     * segment and element index. Since JDK 22 the layout's handle
+     * also takes a base offset right after the segment, which is
+     * fixed at 0 here, so the same calls work with the JDK 21
+     * preview and the final API.
+     * @return VarHandle with coordinates (MemorySegment, long)
+     */
+    private static VarHandle cellHandle() {
+        VarHandle handle = ValueLayout.JAVA_INT.arrayElementVarHandle();
+        if (handle.coordinateTypes().size() == 3)
+            handle = MethodHandles.insertCoordinates(handle, 1, 0L);
+        return handle;
+    }
+
+    public int getRows() {
+        return rows;
+    }
+
+    public int getColumns() {
+        return columns;
+    }
+
+    /**
+     * Returns the index of a position in the native memory.
+     * @param row row of the position
+     * @param col column of the position
+     * @return long index of the position
+     */
+    private long index(int row, int col) {
+        return (long) row * columns + col;
+    }
+
+    public Vehicle get(int row, int col) {
+        long index = index(row, col);
+        for (;;) {
+            int handle = (int) CELL.getAcquire(cells, index);
+            if (handle == EMPTY)
+                return null;
+
+            // The table holding the slot was published before the handle
+            Vehicle v = vehicles.get(handle & SLOT_MASK);
+            // The Vehicle may have left and its handle been reused meanwhile
+            if (v != null && (int) CELL.getAcquire(cells, index) == handle)
+                return v;
+        }
+    }
+
+    public boolean isOccupied(int row, int col) {
+        return (int) CELL.getAcquire(cells, index(row, col)) != EMPTY;
+    }
+
+    public boolean place(int row, int col, Vehicle v) {
+        long index = index(row, col);
+        if ((int) CELL.getAcquire(cells, index) != EMPTY)
+            return false;
+
+        int handle = allocateHandle(v);
+        if (CELL.compareAndSet(cells, index, EMPTY, handle))
+            return true;
+
+        releaseHandle(handle);
+        return false;
+    }
+
+    public boolean move(int fromRow, int fromCol, int toRow, int toCol) {
+        long from = index(fromRow, fromCol);
+        if (!CELL.compareAndSet(cells, index(toRow, toCol), EMPTY, (int) CELL.getAcquire(cells, from)))
+            return false;
+
+        CELL.setRelease(cells, from, EMPTY);
+        return true;
+    }
+
+    public void remove(int row, int col) {
+        int handle = (int) CELL.getAndSet(cells, index(row, col), EMPTY);
+        if (handle != EMPTY)
+            releaseHandle(handle);
+    }
+
+    public void close() {
+        arena.close();
+    }
+
+    /**
+     * Gives a Vehicle a handle, reusing the oldest free slot if
+     * enough have been freed since, and otherwise a new one,
+     * growing the table if it is full.
+     * @param v Vehicle object
+     * @return int handle of the Vehicle
+     * @throws IllegalStateException if there are more vehicles than slots
+     */
+    private synchronized int allocateHandle(Vehicle v) {
+        int handle;
+        if (freeCount > REUSE_DELAY) {
+            handle = freeHandles[freeHead];
+            freeHead = (freeHead + 1) % freeHandles.length;
+            freeCount--;
+        }
+        else {
+            if (nextSlot > SLOT_MASK)
+                throw new IllegalStateException("An off-heap grid holds at most " + SLOT_MASK + " vehicles");
+            handle = nextSlot++;
+            AtomicReferenceArray<Vehicle> table = vehicles;
+            if (handle == table.length()) {
+                AtomicReferenceArray<Vehicle> larger = new AtomicReferenceArray<>(table.length() * 2);
+                for (int i = 0; i < table.length(); i++) {
+                    larger.set(i, table.get(i));
+                }
+                vehicles = larger;
+            }
+        }
+
+        vehicles.set(handle & SLOT_MASK, v);
+        return handle;
+    }
+
+    /**
+     * Takes back the slot of a Vehicle that left the grid. The
+     * slot is given out again with the next generation of its
+     * handle, which wraps around after 2^10 generations.
+     * @param handle handle of the Vehicle
+     */
+    private synchronized void releaseHandle(int handle) {
+        vehicles.set(handle & SLOT_MASK, null);
+        handle += 1 << SLOT_BITS;
+        if (freeCount == freeHandles.length) {
+            int[] larger = new int[freeHandles.length * 2];
+            for (int i = 0; i < freeCount; i++) {
+                larger[i] = freeHandles[(freeHead + i) % freeHandles.length];
+            }
+            freeHandles = larger;
+            freeHead = 0;
+        }
+        freeHandles[(freeHead + freeCount++) % freeHandles.length] = handle;
+    }
+}
@@ -14,6 +14,8 @@ public class APSpec2 {
          * and the vertical direction of rows 10 to 20 */
         grid.reverseHorizontalDirection(5, 10);
         grid.reverseVerticalDirection(10, 20);
+        // Report the grid's occupancy when run with Flight Recorder
+        grid.enableOccupancyEvents();
         /* Create StatisticCollector for the default generator, the
          * generator itself by passing the generator object to it.
          * Then add the generator to the grid. */
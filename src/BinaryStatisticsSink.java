@@ -0,0 +1,55 @@
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * A StatisticsSink that writes every window as a fixed
+ * sequence of values to a binary file. Each record holds the
+ * timestamp (long), generator name (modified UTF-8), window length
+ * (int), vehicle count (long) and the p50, p90 and p99 travel
+ * times in nanoseconds (long).
+ *
+ * @author Boyan Stoynov
+ */
+public class BinaryStatisticsSink implements StatisticsSink {
+    /* Stream for the binary file */
+    private final DataOutputStream out;
+
+    /**
+     * Creates the sink and opens the file.
+     * @param fileName name of the binary file
+     * @throws IOException if the file cannot be opened
+     */
+    public BinaryStatisticsSink(String fileName) throws IOException {
+        out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(fileName)));
+    }
+
+    /**
+     * Writes the window statistics as a record of the file.
+     * @param stats WindowStatistics object
+     */
+    @Override
+    public synchronized void publish(WindowStatistics stats) {
+        try {
+            out.writeLong(stats.getTimestamp());
+            out.writeUTF(stats.getGeneratorName());
+            out.writeInt(stats.getWindowSeconds());
+            out.writeLong(stats.getVehicleCount());
+            out.writeLong(stats.getMedianTravelTime());
+            out.writeLong(stats.getP90TravelTime());
+            out.writeLong(stats.getP99TravelTime());
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        try {
+            out.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
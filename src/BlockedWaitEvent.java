@@ -0,0 +1,31 @@
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/**
+ * Flight Recorder event spanning the wait of a Vehicle for an
+ * occupied position. Only waits longer than the threshold are
+ * recorded, so short waits cost no more than a time stamp.
+ *
+ * @author Boyan Stoynov
+ */
+@Name("traffic.BlockedWait")
+@Label("Blocked Wait")
+@Category({"Traffic Simulation", "Grid"})
+@Description("A vehicle has waited for the position ahead of it to be vacated")
+@Threshold("10 ms")
+@StackTrace(false)
+public class BlockedWaitEvent extends jdk.jfr.Event {
+    @Label("Row")
+    int row;
+
+    @Label("Column")
+    int column;
+
+    @Label("Evicted")
+    @Description("Whether the vehicle was taken off the grid while waiting")
+    boolean evicted;
+}
@@ -0,0 +1,269 @@
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * A class that finds the highest generation rate a grid layout
+ * can sustain. It runs the grid headless for a fixed time with a
+ * single default generator, doubling the rate until the grid
+ * saturates and then binary searching the generation frequency
+ * between the last sustainable and the first saturated rate. A
+ * probe is saturated when too many vehicles find their entry
+ * occupied or when the 90th percentile travel time grows too much
+ * over the one measured at the starting rate. As a single probe is
+ * noisy near capacity, each rate is probed several times and moves
+ * a bound of the search only by a majority of its probes. The knee
+ * point is the highest rate before the median p90 travel time of
+ * its probes starts to grow noticeably.
+ *
+ * @author Boyan Stoynov
+ */
+public class CapacityFinder {
+    /* Sets up the layout of every grid probed, e.g. reversed lanes */
+    private final Consumer<GridSimulator> layout;
+    /* Milliseconds each probe runs for */
+    private final int probeTime;
+    /* Number of probes that decide whether a rate is saturated, odd so they can't tie */
+    private final int probeRepeats;
+    /* Share of vehicles finding their entry occupied above which the grid is saturated */
+    private final double maxRejectionRate;
+    /* Growth of the p90 travel time above which the grid is saturated */
+    private final double maxTravelTimeGrowth;
+    /* Growth of the p90 travel time that marks the knee point */
+    private final double kneeTravelTimeGrowth;
+    /* All probes run so far */
+    private final ArrayList<CapacityProbe> probes;
+    /* Whether the probes of each frequency decided it is saturated */
+    private final HashMap<Integer, Boolean> verdicts;
+
+    /**
+     * Creates a CapacityFinder object.
+     * @param layout sets up the layout of each new grid
+     * @param probeTime milliseconds each probe runs for
+     * @param probeRepeats number of probes that decide each rate, an odd number
+     * @param maxRejectionRate share of vehicles finding their entry occupied that saturates the grid
+     * @param maxTravelTimeGrowth growth of the p90 travel time that saturates the grid
+     * @param kneeTravelTimeGrowth growth of the p90 travel time that marks the knee
+     * @throws IllegalArgumentException if probeRepeats is not a positive odd number
+     */
+    public CapacityFinder(Consumer<GridSimulator> layout, int probeTime, int probeRepeats,
+                          double maxRejectionRate, double maxTravelTimeGrowth, double kneeTravelTimeGrowth) {
+        if (probeRepeats < 1 || probeRepeats % 2 == 0)
+            throw new IllegalArgumentException("Probe repeats is " + probeRepeats + ", a positive odd number expected");
+        this.layout = layout;
+        this.probeTime = probeTime;
+        this.probeRepeats = probeRepeats;
+        this.maxRejectionRate = maxRejectionRate;
+        this.maxTravelTimeGrowth = maxTravelTimeGrowth;
+        this.kneeTravelTimeGrowth = kneeTravelTimeGrowth;
+        probes = new ArrayList<>();
+        verdicts = new HashMap<>();
+    }
+
+    /**
+     * Runs the finder on the grid size of the SimulationConfig class.
+     * Arguments are optional: starting frequency in milliseconds,
+     * milliseconds per probe, how many times faster than real time
+     * the probes run and the number of probes per rate. Times are in
+     * simulated milliseconds.
+     * @param args command line arguments
+     */
+    public static void main(String[] args) {
+        int startFrequency = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+        int probeTime = args.length > 1 ? Integer.parseInt(args[1]) : 10000;
+        if (args.length > 2)
+            SimulationConfig.setClock(new ScaledClock(Double.parseDouble(args[2])));
+        int probeRepeats = args.length > 3 ? Integer.parseInt(args[3]) : 3;
+
+        CapacityFinder finder = new CapacityFinder(grid -> { }, probeTime, probeRepeats, 0.05, 2.0, 1.25);
+        finder.find(startFrequency);
+    }
+
+    /**
+     * Searches for the capacity of the grid layout and prints the
+     * probes, the sustainable capacity and the knee point to the
+     * standard output stream.
+     * @param startFrequency milliseconds between vehicles of the first, lowest rate
+     */
+    public void find(int startFrequency) {
+        CapacityProbe baseline = runProbe(startFrequency);
+        long baseTravelTime = baseline.getP90TravelTime();
+        // Travel times can't be compared without any at the starting rate
+        if (baseline.getVehicleCount() == 0) {
+            System.out.println("No vehicle crossed the grid during the first probe, the probe time is too short");
+            return;
+        }
+
+        // Frequency of the highest sustainable and lowest saturated rate found
+        int sustainable = -1;
+        int saturated = -1;
+        if (isSaturatedAt(startFrequency, baseTravelTime, baseline))
+            saturated = startFrequency;
+        else
+            sustainable = startFrequency;
+
+        // Doubles the rate until the grid saturates
+        for (int frequency = startFrequency / 2; sustainable > 0 && saturated < 0 && frequency >= 1; frequency /= 2) {
+            if (isSaturatedAt(frequency, baseTravelTime, null))
+                saturated = frequency;
+            else
+                sustainable = frequency;
+        }
+
+        // Binary searches between the sustainable and saturated frequencies
+        while (sustainable > 0 && saturated > 0 && sustainable - saturated > 1) {
+            int frequency = (sustainable + saturated) / 2;
+            if (isSaturatedAt(frequency, baseTravelTime, null))
+                saturated = frequency;
+            else
+                sustainable = frequency;
+        }
+
+        printReport(sustainable, saturated, baseTravelTime);
+    }
+
+    /**
+     * Decides whether a rate saturates the grid by a majority of its
+     * probes, running only as many as it takes for one side to win.
+     * @param frequency milliseconds between each generated vehicle
+     * @param baseTravelTime p90 travel time at the starting rate
+     * @param first probe already run at the rate, null if none
+     * @return boolean whether most probes found the grid saturated
+     */
+    private boolean isSaturatedAt(int frequency, long baseTravelTime, CapacityProbe first) {
+        int majority = probeRepeats / 2 + 1;
+        int saturatedVotes = 0;
+        int sustainableVotes = 0;
+        CapacityProbe probe = first;
+        while (saturatedVotes < majority && sustainableVotes < majority) {
+            if (probe == null)
+                probe = runProbe(frequency);
+            if (isSaturated(probe, baseTravelTime))
+                saturatedVotes++;
+            else
+                sustainableVotes++;
+            probe = null;
+        }
+
+        boolean saturated = saturatedVotes >= majority;
+        verdicts.put(frequency, saturated);
+        return saturated;
+    }
+
+    /**
+     * Runs a fresh grid with a single default generator of the
+     * given frequency for the probe time, then stops the generator
+     * and takes the remaining vehicles off the grid, waiting for their
+     * threads to finish so they don't slow down the next probe. Vehicles
+     * still on the grid count towards the p90 travel time with the
+     * time they have been travelling for, as their trips take at least
+     * that long, so the p90 is not understated near saturation.
+     * @param frequency milliseconds between each generated vehicle
+     * @return CapacityProbe result of the probe
+     */
+    private CapacityProbe runProbe(int frequency) {
+        GridSimulator grid = new GridSimulator();
+        layout.accept(grid);
+        StatisticsCollector stats = new StatisticsCollector("Probe " + frequency, false);
+        TrafficGenerator generator = new TrafficGenerator(grid, frequency, stats);
+        grid.addDefaultGenerator(generator);
+
+        generator.start();
+        try {
+            SimulationConfig.getClock().sleep(probeTime);
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        }
+        generator.stopGeneration();
+
+        // Drains the grid, evicted vehicles don't log their trips
+        try {
+            generator.join();
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        }
+        List<Vehicle> remaining = grid.evictAll();
+        long drainTime = SimulationConfig.getClock().nanoTime();
+        for (Vehicle v : remaining) {
+            try {
+                v.join();
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+            }
+        }
+
+        // Counts the unfinished trips as lasting until the grid was drained
+        long[] counts = new long[TravelTimeHistogram.BUCKET_COUNT];
+        stats.addTravelTimesTo(counts);
+        TravelTimeHistogram unfinished = new TravelTimeHistogram();
+        for (Vehicle v : remaining) {
+            unfinished.record(v.getStartTime() == 0 ? 0 : drainTime - v.getStartTime());
+        }
+        unfinished.addTo(counts);
+
+        long attempts = grid.getEntryAttempts();
+        double rejectionRate = attempts == 0 ? 0.0 : (double) grid.getEntryRejections() / attempts;
+        CapacityProbe probe = new CapacityProbe(frequency, rejectionRate, stats.getVehicleCount(),
+                TravelTimeHistogram.percentileOf(counts, 90));
+        probes.add(probe);
+
+        System.out.println(String.format("Probe %.2f vehicles/s : rejections %.1f%%, %d vehicles, p90 %.5fs",
+                probe.getRate(), rejectionRate * 100, probe.getVehicleCount(), probe.getP90TravelTime() / 1e9));
+        return probe;
+    }
+
+    /**
+     * Checks if a probe shows the grid is saturated.
+     * @param probe CapacityProbe object
+     * @param baseTravelTime p90 travel time at the starting rate
+     * @return boolean whether the grid is saturated
+     */
+    private boolean isSaturated(CapacityProbe probe, long baseTravelTime) {
+        return probe.getVehicleCount() == 0
+                || probe.getRejectionRate() > maxRejectionRate
+                || probe.getP90TravelTime() > baseTravelTime * maxTravelTimeGrowth;
+    }
+
+    /**
+     * Prints the result of the search.
+     * @param sustainable frequency of the highest sustainable rate, -1 if none
+     * @param saturated frequency of the lowest saturated rate, -1 if none
+     * @param baseTravelTime p90 travel time at the starting rate
+     */
+    private void printReport(int sustainable, int saturated, long baseTravelTime) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("\nCapacity report\n");
+        sb.append("========================================\n");
+
+        if (sustainable < 0)
+            sb.append("Saturated at the starting rate\n");
+        else if (saturated < 0)
+            sb.append(String.format("Not saturated up to %.2f vehicles/s\n", 1000.0 / sustainable));
+        else
+            sb.append(String.format("Sustainable capacity : %.2f vehicles/s\n", 1000.0 / sustainable));
+
+        // Knee is the highest rate before the median travel time of its probes grows noticeably
+        probes.sort(Comparator.comparingDouble(CapacityProbe::getRate)
+                .thenComparingLong(CapacityProbe::getP90TravelTime));
+        CapacityProbe knee = null;
+        for (int i = 0; i < probes.size(); ) {
+            int frequency = probes.get(i).getFrequency();
+            int end = i;
+            while (end < probes.size() && probes.get(end).getFrequency() == frequency) {
+                end++;
+            }
+            CapacityProbe median = probes.get((i + end - 1) / 2);
+            if (verdicts.get(frequency) || median.getP90TravelTime() > baseTravelTime * kneeTravelTimeGrowth)
+                break;
+            knee = median;
+            i = end;
+        }
+        if (knee != null)
+            sb.append(String.format("Knee point : %.2f vehicles/s (p90 %.5fs)\n",
+                    knee.getRate(), knee.getP90TravelTime() / 1e9));
+
+        System.out.print(sb.toString());
+    }
+}
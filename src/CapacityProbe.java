@@ -0,0 +1,51 @@
+/**
+ * Immutable class holding the result of running a grid
+ * with one generation frequency for a fixed time.
+ *
+ * @author Boyan Stoynov
+ */
+public class CapacityProbe {
+    private final int frequency;
+    private final double rejectionRate;
+    private final long vehicleCount;
+    private final long p90TravelTime;
+
+    /**
+     * Creates a CapacityProbe object.
+     * @param frequency milliseconds between each generated vehicle
+     * @param rejectionRate share of vehicles that found their entry occupied
+     * @param vehicleCount vehicles that left the grid during the probe
+     * @param p90TravelTime 90th percentile travel time in nanoseconds, counting
+     * vehicles still on the grid at the end of the probe
+     */
+    public CapacityProbe(int frequency, double rejectionRate, long vehicleCount, long p90TravelTime) {
+        this.frequency = frequency;
+        this.rejectionRate = rejectionRate;
+        this.vehicleCount = vehicleCount;
+        this.p90TravelTime = p90TravelTime;
+    }
+
+    public int getFrequency() {
+        return frequency;
+    }
+
+    /**
+     * Returns the number of vehicles generated per second.
+     * @return double generation rate
+     */
+    public double getRate() {
+        return 1000.0 / frequency;
+    }
+
+    public double getRejectionRate() {
+        return rejectionRate;
+    }
+
+    public long getVehicleCount() {
+        return vehicleCount;
+    }
+
+    public long getP90TravelTime() {
+        return p90TravelTime;
+    }
+}
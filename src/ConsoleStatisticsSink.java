@@ -0,0 +1,27 @@
+/**
+ * A StatisticsSink that prints one line for every window
+ * to the standard output stream.
+ *
+ * @author Boyan Stoynov
+ */
+public class ConsoleStatisticsSink implements StatisticsSink {
+
+    /**
+     * Formats the window statistics and prints them to the
+     * standard output stream.
+     * @param stats WindowStatistics object
+     */
+    @Override
+    public void publish(WindowStatistics stats) {
+        System.out.println(String.format("[%s | %2ds] vehicles: %d, throughput: %.2f/s, " +
+                        "p50: %.5fs, p90: %.5fs, p99: %.5fs",
+                stats.getGeneratorName(), stats.getWindowSeconds(), stats.getVehicleCount(),
+                stats.getThroughput(), stats.getMedianTravelTime() / 1e9,
+                stats.getP90TravelTime() / 1e9, stats.getP99TravelTime() / 1e9));
+    }
+
+    @Override
+    public void close() {
+        System.out.flush();
+    }
+}
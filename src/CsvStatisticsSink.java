@@ -0,0 +1,42 @@
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+
+/**
+ * A StatisticsSink that appends one comma separated line
+ * for every window to a file. Travel times are written
+ * in seconds.
+ *
+ * @author Boyan Stoynov
+ */
+public class CsvStatisticsSink implements StatisticsSink {
+    /* Writer for the CSV file */
+    private final PrintWriter writer;
+
+    /**
+     * Creates the sink and writes the header line to the file.
+     * @param fileName name of the CSV file
+     * @throws IOException if the file cannot be opened
+     */
+    public CsvStatisticsSink(String fileName) throws IOException {
+        writer = new PrintWriter(new FileWriter(fileName));
+        writer.println("timestamp,generator,window,vehicles,throughput,p50,p90,p99");
+    }
+
+    /**
+     * Writes the window statistics as a line of the file.
+     * @param stats WindowStatistics object
+     */
+    @Override
+    public synchronized void publish(WindowStatistics stats) {
+        writer.println(String.format("%d,%s,%d,%d,%.3f,%.6f,%.6f,%.6f",
+                stats.getTimestamp(), stats.getGeneratorName(), stats.getWindowSeconds(),
+                stats.getVehicleCount(), stats.getThroughput(), stats.getMedianTravelTime() / 1e9,
+                stats.getP90TravelTime() / 1e9, stats.getP99TravelTime() / 1e9));
+    }
+
+    @Override
+    public synchronized void close() {
+        writer.close();
+    }
+}
@@ -0,0 +1,148 @@
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Class that divides a grid into blocks of cells and counts the
+ * vehicles in every block for each Direction of travel. The counts
+ * are updated incrementally by the grid as vehicles enter, move and
+ * leave, so reading the map costs as much as the number of blocks
+ * regardless of the size of the grid. Only the grid should update
+ * the counts, others read them through the ReadOnlyDensityMap interface.
+ *
+ * @author Boyan Stoynov
+ */
+public class DensityMap implements ReadOnlyDensityMap {
+    /* Number of Directions counted in each block */
+    private static final int DIRECTIONS = Direction.values().length;
+
+    /* Number of grid rows */
+    private final int gridRows;
+    /* Number of grid columns */
+    private final int gridColumns;
+    /* Number of grid rows in each block */
+    private final int blockHeight;
+    /* Number of grid columns in each block */
+    private final int blockWidth;
+    /* Number of block rows */
+    private final int blockRows;
+    /* Number of block columns */
+    private final int blockColumns;
+    /* Vehicle counts indexed by block and Direction */
+    private final AtomicIntegerArray counts;
+
+    /**
+     * Creates a DensityMap for a grid that fits into at most
+     * the given number of block rows and columns.
+     * @param gridRows number of grid rows
+     * @param gridColumns number of grid columns
+     * @param maxBlockRows maximum number of block rows
+     * @param maxBlockColumns maximum number of block columns
+     */
+    public DensityMap(int gridRows, int gridColumns, int maxBlockRows, int maxBlockColumns) {
+        this.gridRows = gridRows;
+        this.gridColumns = gridColumns;
+        // Smallest blocks that make the grid fit
+        blockHeight = (gridRows + maxBlockRows - 1) / maxBlockRows;
+        blockWidth = (gridColumns + maxBlockColumns - 1) / maxBlockColumns;
+        blockRows = (gridRows + blockHeight - 1) / blockHeight;
+        blockColumns = (gridColumns + blockWidth - 1) / blockWidth;
+        counts = new AtomicIntegerArray(blockRows * blockColumns * DIRECTIONS);
+    }
+
+    /**
+     * Counts a vehicle that has been put on the grid.
+     * @param row grid row
+     * @param col grid column
+     * @param dir Direction of the vehicle
+     */
+    public void vehicleEntered(int row, int col, Direction dir) {
+        counts.incrementAndGet(index(row, col, dir));
+    }
+
+    /**
+     * Stops counting a vehicle that has been removed from the grid.
+     * @param row grid row
+     * @param col grid column
+     * @param dir Direction of the vehicle
+     */
+    public void vehicleLeft(int row, int col, Direction dir) {
+        counts.decrementAndGet(index(row, col, dir));
+    }
+
+    /**
+     * Updates the counts for a vehicle that has moved. Nothing
+     * changes if it stays in the same block with the same Direction.
+     * @param fromRow previous grid row
+     * @param fromCol previous grid column
+     * @param fromDir previous Direction of the vehicle
+     * @param toRow new grid row
+     * @param toCol new grid column
+     * @param toDir new Direction of the vehicle
+     */
+    public void vehicleMoved(int fromRow, int fromCol, Direction fromDir, int toRow, int toCol, Direction toDir) {
+        int from = index(fromRow, fromCol, fromDir);
+        int to = index(toRow, toCol, toDir);
+        if (from != to) {
+            counts.decrementAndGet(from);
+            counts.incrementAndGet(to);
+        }
+    }
+
+    public int getBlockRows() {
+        return blockRows;
+    }
+
+    public int getBlockColumns() {
+        return blockColumns;
+    }
+
+    /**
+     * Returns the number of vehicles in a block.
+     * @param blockRow block row
+     * @param blockCol block column
+     * @return int number of vehicles
+     */
+    public int getCount(int blockRow, int blockCol) {
+        int base = (blockRow * blockColumns + blockCol) * DIRECTIONS;
+        int total = 0;
+        for (int i = 0; i < DIRECTIONS; i++) {
+            total += counts.get(base + i);
+        }
+        return total;
+    }
+
+    /**
+     * Returns the number of vehicles in a block travelling
+     * in the given Direction.
+     * @param blockRow block row
+     * @param blockCol block column
+     * @param dir Direction of travel
+     * @return int number of vehicles
+     */
+    public int getCount(int blockRow, int blockCol, Direction dir) {
+        return counts.get((blockRow * blockColumns + blockCol) * DIRECTIONS + dir.ordinal());
+    }
+
+    /**
+     * Returns the number of grid cells in a block. Blocks on the
+     * last row and column may be smaller than the others.
+     * @param blockRow block row
+     * @param blockCol block column
+     * @return int number of cells
+     */
+    public int getBlockArea(int blockRow, int blockCol) {
+        int height = Math.min(blockHeight, gridRows - blockRow * blockHeight);
+        int width = Math.min(blockWidth, gridColumns - blockCol * blockWidth);
+        return height * width;
+    }
+
+    /**
+     * Returns the index of the counter for a cell and Direction.
+     * @param row grid row
+     * @param col grid column
+     * @param dir Direction of travel
+     * @return int counter index
+     */
+    private int index(int row, int col, Direction dir) {
+        return ((row / blockHeight) * blockColumns + col / blockWidth) * DIRECTIONS + dir.ordinal();
+    }
+}
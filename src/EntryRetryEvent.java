@@ -0,0 +1,27 @@
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Flight Recorder event spanning the tries of a TrafficGenerator
+ * to put a Vehicle on an entry position, committed only when the
+ * first try found the entry occupied.
+ *
+ * @author Boyan Stoynov
+ */
+@Name("traffic.EntryRetry")
+@Label("Entry Retry")
+@Category({"Traffic Simulation", "Grid"})
+@Description("A generator had to retry putting a vehicle on the grid")
+@StackTrace(false)
+public class EntryRetryEvent extends jdk.jfr.Event {
+    @Label("Retries")
+    @Description("Number of tries that found the entry position occupied")
+    int retries;
+
+    @Label("Added")
+    @Description("Whether the vehicle was put on the grid in the end")
+    boolean added;
+}
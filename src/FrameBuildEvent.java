@@ -0,0 +1,24 @@
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Flight Recorder event spanning the building of a frame by
+ * the SimulationVisualiser.
+ *
+ * @author Boyan Stoynov
+ */
+@Name("traffic.FrameBuild")
+@Label("Frame Build")
+@Category({"Traffic Simulation", "Visualisation"})
+@Description("A frame of the simulation has been built")
+@StackTrace(false)
+public class FrameBuildEvent extends jdk.jfr.Event {
+    @Label("Frame")
+    int frame;
+
+    @Label("Characters")
+    int characters;
+}
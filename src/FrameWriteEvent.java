@@ -0,0 +1,21 @@
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Flight Recorder event spanning the writing of a frame to the
+ * output stream by the FrameWriter.
+ *
+ * @author Boyan Stoynov
+ */
+@Name("traffic.FrameWrite")
+@Label("Frame Write")
+@Category({"Traffic Simulation", "Visualisation"})
+@Description("A frame of the simulation has been written to the output stream")
+@StackTrace(false)
+public class FrameWriteEvent extends jdk.jfr.Event {
+    @Label("Characters")
+    int characters;
+}
@@ -0,0 +1,112 @@
+import java.io.PrintStream;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A class that runs on its own thread and writes the frames
+ * produced by a single visualiser to an output stream. Frames are
+ * handed over through a one-slot mailbox, so the producer never
+ * waits for the stream. If a new frame is submitted before the
+ * previous one was written, the previous one is dropped and the
+ * newest frame always wins.
+ *
+ * @author Boyan Stoynov
+ */
+public class FrameWriter extends Thread {
+    /* Stream the frames are written to */
+    private final PrintStream out;
+    /* Newest frame that hasn't been written yet */
+    private final AtomicReference<String> pendingFrame;
+    /* Number of frames submitted */
+    private final AtomicLong framesProduced;
+    /* Number of frames replaced before being written */
+    private final AtomicLong framesDropped;
+    /* Number of frames written to the stream */
+    private final AtomicLong framesWritten;
+    /* Whether the producer has submitted its last frame */
+    private volatile boolean finished;
+
+    /**
+     * Creates a FrameWriter daemon thread for the given stream.
+     * @param out PrintStream to write to
+     */
+    public FrameWriter(PrintStream out) {
+        super("Frame writer");
+        setDaemon(true);
+        this.out = out;
+        pendingFrame = new AtomicReference<>();
+        framesProduced = new AtomicLong();
+        framesDropped = new AtomicLong();
+        framesWritten = new AtomicLong();
+    }
+
+    /**
+     * Hands a frame over to be written. Never blocks. Any
+     * frame still waiting to be written is dropped.
+     * @param frame the frame
+     */
+    public void submit(String frame) {
+        framesProduced.incrementAndGet();
+        if (pendingFrame.getAndSet(frame) != null)
+            framesDropped.incrementAndGet();
+        LockSupport.unpark(this);
+    }
+
+    /**
+     * Waits until the last submitted frame has been written.
+     * No frames should be submitted after calling this.
+     */
+    public void finish() {
+        finished = true;
+        LockSupport.unpark(this);
+        try {
+            join();
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        }
+    }
+
+    public long getFramesProduced() {
+        return framesProduced.get();
+    }
+
+    public long getFramesDropped() {
+        return framesDropped.get();
+    }
+
+    public long getFramesWritten() {
+        return framesWritten.get();
+    }
+
+    /**
+     * Starts the thread. Writes the newest pending frame and
+     * parks while there is none, until the producer has finished.
+     */
+    @Override
+    public void run() {
+        for (;;) {
+            /* Read before taking the frame, so the last frame
+             * submitted before finishing is never missed */
+            boolean done = finished;
+            String frame = pendingFrame.getAndSet(null);
+            if (frame != null) {
+                FrameWriteEvent event = new FrameWriteEvent();
+                event.begin();
+                out.println(frame);
+                event.end();
+                if (event.shouldCommit()) {
+                    event.characters = frame.length();
+                    event.commit();
+                }
+                framesWritten.incrementAndGet();
+            }
+            else if (done) {
+                out.flush();
+                return;
+            }
+            else
+                LockSupport.park(this);
+        }
+    }
+}
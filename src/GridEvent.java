@@ -0,0 +1,56 @@
+/**
+ * Immutable class to represent a single piece of activity
+ * on a grid, such as a vehicle moving to a new position.
+ *
+ * @author Boyan Stoynov
+ */
+public class GridEvent {
+    private final GridEventType type;
+    private final long vehicleId;
+    private final int row;
+    private final int column;
+    private final Direction direction;
+    private final long timestamp;
+
+    /**
+     * Creates a GridEvent object.
+     * @param type kind of activity
+     * @param vehicleId id of the vehicle's thread
+     * @param row grid row of the vehicle
+     * @param column grid column of the vehicle
+     * @param direction Direction of the vehicle
+     * @param timestamp nano time of the activity
+     */
+    public GridEvent(GridEventType type, long vehicleId, int row, int column, Direction direction, long timestamp) {
+        this.type = type;
+        this.vehicleId = vehicleId;
+        this.row = row;
+        this.column = column;
+        this.direction = direction;
+        this.timestamp = timestamp;
+    }
+
+    public GridEventType getType() {
+        return type;
+    }
+
+    public long getVehicleId() {
+        return vehicleId;
+    }
+
+    public int getRow() {
+        return row;
+    }
+
+    public int getColumn() {
+        return column;
+    }
+
+    public Direction getDirection() {
+        return direction;
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+}
@@ -0,0 +1,140 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A class that publishes the activity of a grid (vehicles spawning,
+ * moving, getting blocked and leaving) as batches of GridEvents to
+ * any number of subscribers. Publishing costs a single volatile read
+ * when there are no subscribers. Otherwise the event is staged in the
+ * bounded feed of each subscription without ever waiting, so the grid
+ * is never slowed down by subscribers; events that find a feed full
+ * are dropped for that subscription and counted. Each subscription
+ * delivers its events on its own thread, so a subscription that
+ * holds back its feed under the Block policy holds back no other.
+ *
+ * @author Boyan Stoynov
+ */
+public class GridEventPublisher implements Flow.Publisher<List<GridEvent>> {
+    /* Shared empty array of subscriptions */
+    private static final GridEventSubscription[] NO_SUBSCRIPTIONS = new GridEventSubscription[0];
+    /* Default number of events each subscription buffers */
+    private static final int DEFAULT_BUFFER_SIZE = 4096;
+    /* Default maximum number of events in a batch */
+    private static final int DEFAULT_MAX_BATCH = 256;
+
+    /* Number of events the feed of each subscription holds */
+    private final int stagingCapacity;
+    /* Number of events dropped because the feed of a subscription was full */
+    private final LongAdder stagingDrops;
+    /* Current subscriptions, replaced as a whole when they change */
+    private volatile GridEventSubscription[] subscriptions;
+    /* Clock the events are time stamped with */
+    private final SimulationClock clock;
+
+    /**
+     * Creates a GridEventPublisher object.
+     * @param stagingCapacity number of events the feed of each subscription holds
+     */
+    public GridEventPublisher(int stagingCapacity) {
+        this.stagingCapacity = stagingCapacity;
+        stagingDrops = new LongAdder();
+        subscriptions = NO_SUBSCRIPTIONS;
+        clock = SimulationConfig.getClock();
+    }
+
+    /**
+     * Checks if anyone is subscribed to the events.
+     * @return boolean whether there are subscribers
+     */
+    public boolean hasSubscribers() {
+        return subscriptions.length != 0;
+    }
+
+    /**
+     * Publishes the activity of a Vehicle at a Position. Never blocks.
+     * @param type kind of activity
+     * @param v Vehicle object
+     * @param pos Position of the activity
+     */
+    public void publish(GridEventType type, Vehicle v, Position pos) {
+        GridEventSubscription[] current = subscriptions;
+        if (current.length == 0)
+            return;
+
+        GridEvent event = new GridEvent(type, v.threadId(), pos.getHorzPosition(), pos.getVertPosition(),
+                v.getDirection(), clock.nanoTime());
+        for (GridEventSubscription subscription : current) {
+            if (!subscription.stage(event))
+                stagingDrops.increment();
+        }
+    }
+
+    /**
+     * Returns the number of events dropped because the
+     * feed of a subscription was full.
+     * @return long number of events
+     */
+    public long getStagingDropCount() {
+        return stagingDrops.sum();
+    }
+
+    /**
+     * Subscribes with the default buffer size and batch size,
+     * dropping the oldest events when the buffer is full.
+     * @param subscriber subscriber to receive batches of events
+     */
+    @Override
+    public void subscribe(Flow.Subscriber<? super List<GridEvent>> subscriber) {
+        subscribe(subscriber, DEFAULT_BUFFER_SIZE, DEFAULT_MAX_BATCH, OverflowPolicy.DropOldest, 1);
+    }
+
+    /**
+     * Subscribes with the given buffering settings. Under the
+     * Block policy, events that don't fit the buffer wait in the
+     * feed of the subscription, and are only dropped once the feed
+     * is full too.
+     * @param subscriber subscriber to receive batches of events
+     * @param bufferSize number of events buffered for the subscriber
+     * @param maxBatch maximum number of events in a batch
+     * @param policy what to do when the buffer is full
+     * @param sampleInterval every how many overflowing events one is kept when sampling
+     * @return GridEventSubscription the new subscription
+     */
+    public synchronized GridEventSubscription subscribe(Flow.Subscriber<? super List<GridEvent>> subscriber,
+                                                        int bufferSize, int maxBatch, OverflowPolicy policy,
+                                                        int sampleInterval) {
+        GridEventSubscription subscription = new GridEventSubscription(this, subscriber, bufferSize, maxBatch,
+                policy, sampleInterval, stagingCapacity);
+        subscriber.onSubscribe(subscription);
+        subscription.start();
+
+        GridEventSubscription[] updated = Arrays.copyOf(subscriptions, subscriptions.length + 1);
+        updated[updated.length - 1] = subscription;
+        subscriptions = updated;
+        return subscription;
+    }
+
+    /**
+     * Removes a subscription that has been cancelled or has finished.
+     * @param subscription GridEventSubscription object
+     */
+    public synchronized void removeSubscription(GridEventSubscription subscription) {
+        ArrayList<GridEventSubscription> remaining = new ArrayList<>(Arrays.asList(subscriptions));
+        remaining.remove(subscription);
+        subscriptions = remaining.toArray(NO_SUBSCRIPTIONS);
+    }
+
+    /**
+     * Completes every subscription once its staged and
+     * buffered events have been delivered.
+     */
+    public synchronized void close() {
+        for (GridEventSubscription subscription : subscriptions) {
+            subscription.complete();
+        }
+        subscriptions = NO_SUBSCRIPTIONS;
+    }
+}
@@ -0,0 +1,223 @@
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Flow;
+
+/**
+ * A class that runs on its own thread and delivers the events of a
+ * GridEventPublisher to one subscriber. The publisher stages events in
+ * a bounded feed of the subscription without ever waiting, and the
+ * thread moves them from the feed to a bounded buffer, from which they
+ * are delivered in batches of up to a maximum size, one batch per unit
+ * of demand requested by the subscriber. When the buffer is full the
+ * OverflowPolicy decides which events are kept; under Block the thread
+ * stops taking events from the feed until there is room, so the events
+ * wait in the feed. Since the grid never waits, events that find the
+ * feed full are dropped by the publisher. A slow subscriber thus only
+ * ever holds back its own feed, never the grid or other subscribers.
+ *
+ * @author Boyan Stoynov
+ */
+public class GridEventSubscription extends Thread implements Flow.Subscription {
+    /* Publisher the events come from */
+    private final GridEventPublisher publisher;
+    /* Subscriber the events are delivered to */
+    private final Flow.Subscriber<? super List<GridEvent>> subscriber;
+    /* Events waiting to be delivered, guarded by this object */
+    private final ArrayDeque<GridEvent> buffer;
+    /* Maximum number of buffered events */
+    private final int capacity;
+    /* Maximum number of events in a batch */
+    private final int maxBatch;
+    /* What to do when the buffer is full */
+    private final OverflowPolicy policy;
+    /* Every how many overflowing events one is kept when sampling */
+    private final int sampleInterval;
+    /* Events staged by the publisher, guarded by this object */
+    private final ArrayDeque<GridEvent> feed;
+    /* Maximum number of staged events */
+    private final int feedCapacity;
+    /* Number of batches the subscriber has requested and not received */
+    private long demand;
+    /* Number of events that found the buffer full */
+    private long overflowed;
+    /* Number of events dropped because the buffer was full */
+    private long dropped;
+    /* Whether the subscriber has cancelled */
+    private boolean cancelled;
+    /* Whether the publisher has no more events */
+    private boolean completed;
+    /* Error to report to the subscriber, if any */
+    private Throwable error;
+
+    /**
+     * Creates a GridEventSubscription daemon thread.
+     * @param publisher GridEventPublisher object
+     * @param subscriber subscriber to deliver to
+     * @param capacity maximum number of buffered events
+     * @param maxBatch maximum number of events in a batch
+     * @param policy what to do when the buffer is full
+     * @param sampleInterval every how many overflowing events one is kept when sampling
+     * @param feedCapacity maximum number of staged events
+     */
+    public GridEventSubscription(GridEventPublisher publisher, Flow.Subscriber<? super List<GridEvent>> subscriber,
+                                 int capacity, int maxBatch, OverflowPolicy policy, int sampleInterval,
+                                 int feedCapacity) {
+        super("Grid event subscription");
+        setDaemon(true);
+        this.publisher = publisher;
+        this.subscriber = subscriber;
+        this.capacity = capacity;
+        this.maxBatch = maxBatch;
+        this.policy = policy;
+        this.sampleInterval = sampleInterval;
+        this.feedCapacity = feedCapacity;
+        buffer = new ArrayDeque<>(capacity);
+        feed = new ArrayDeque<>();
+    }
+
+    /**
+     * Stages an event in the feed of the subscription. Never
+     * waits, so the grid is not held up by any subscription.
+     * @param event GridEvent object
+     * @return boolean false if the feed was full and the event dropped
+     */
+    public synchronized boolean stage(GridEvent event) {
+        if (cancelled || completed)
+            return true;
+        if (feed.size() >= feedCapacity)
+            return false;
+
+        feed.addLast(event);
+        // The thread only waits for events once it has emptied the feed
+        if (feed.size() == 1)
+            notifyAll();
+        return true;
+    }
+
+    /**
+     * Moves staged events to the buffer, applying the overflow
+     * policy if it is full. Under the Block policy events are left
+     * in the feed until there is room. This should only be called
+     * while holding the lock of this object.
+     */
+    private void fillBuffer() {
+        while (!feed.isEmpty()) {
+            if (policy == OverflowPolicy.Block && buffer.size() >= capacity)
+                return;
+            addToBuffer(feed.pollFirst());
+        }
+    }
+
+    /**
+     * Buffers an event to be delivered, applying the overflow
+     * policy if the buffer is full. This should only be called
+     * while holding the lock of this object.
+     * @param event GridEvent object
+     */
+    private void addToBuffer(GridEvent event) {
+        if (buffer.size() >= capacity) {
+            // Keeps only every sampleInterval-th overflowing event
+            if (policy == OverflowPolicy.Sample && ++overflowed % sampleInterval != 0) {
+                dropped++;
+                return;
+            }
+            else {
+                buffer.pollFirst();
+                dropped++;
+            }
+        }
+
+        buffer.addLast(event);
+    }
+
+    /**
+     * Requests more batches of events.
+     * @param n number of batches, must be positive
+     */
+    @Override
+    public synchronized void request(long n) {
+        if (n <= 0)
+            error = new IllegalArgumentException("Requested " + n + " batches, must be positive");
+        else
+            demand = demand + n < 0 ? Long.MAX_VALUE : demand + n;
+        notifyAll();
+    }
+
+    /**
+     * Stops the delivery of events.
+     */
+    @Override
+    public void cancel() {
+        synchronized (this) {
+            cancelled = true;
+            notifyAll();
+        }
+        publisher.removeSubscription(this);
+    }
+
+    /**
+     * Completes the subscription once the buffered events
+     * have been delivered.
+     */
+    public synchronized void complete() {
+        completed = true;
+        notifyAll();
+    }
+
+    /**
+     * Returns the number of events dropped from the full buffer
+     * by the overflow policy. Events the publisher dropped because
+     * the feed was full are counted by the publisher.
+     * @return long number of events
+     */
+    public synchronized long getDroppedCount() {
+        return dropped;
+    }
+
+    /**
+     * Starts the thread. Moves staged events to the buffer as
+     * they come and delivers a batch of buffered events whenever
+     * there is demand for it, until the subscription is cancelled,
+     * completed or fails.
+     */
+    @Override
+    public void run() {
+        for (;;) {
+            List<GridEvent> batch;
+            synchronized (this) {
+                try {
+                    fillBuffer();
+                    while (!cancelled && error == null && !(completed && feed.isEmpty() && buffer.isEmpty())
+                            && (demand == 0 || buffer.isEmpty())) {
+                        wait();
+                        fillBuffer();
+                    }
+                } catch (InterruptedException e) {
+                    return;
+                }
+
+                if (cancelled)
+                    return;
+                if (error != null || (completed && feed.isEmpty() && buffer.isEmpty())) {
+                    cancelled = true;
+                    break;
+                }
+
+                batch = new ArrayList<>(Math.min(buffer.size(), maxBatch));
+                while (batch.size() < maxBatch && !buffer.isEmpty()) {
+                    batch.add(buffer.pollFirst());
+                }
+                demand--;
+            }
+
+            subscriber.onNext(batch);
+        }
+
+        publisher.removeSubscription(this);
+        if (error != null)
+            subscriber.onError(error);
+        else
+            subscriber.onComplete();
+    }
+}
@@ -0,0 +1,18 @@
+/**
+ * Enum class that contains the kinds of activity
+ * a grid publishes as events.
+ *
+ * @author Boyan Stoynov
+ */
+public enum GridEventType {
+    /* A vehicle was put on the grid */
+    Spawn,
+    /* A vehicle moved to its next position */
+    Move,
+    /* A vehicle found its next position occupied */
+    Block,
+    /* A vehicle left the grid at the end of its trip */
+    Exit,
+    /* A vehicle was taken off the grid to resolve a gridlock */
+    Evict
+}
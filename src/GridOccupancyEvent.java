@@ -0,0 +1,41 @@
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Period;
+import jdk.jfr.StackTrace;
+
+/**
+ * Flight Recorder event with gauges of a GridSimulator's occupancy.
+ * It is committed by Flight Recorder once every period while the
+ * grid's occupancy events are enabled, and only while recording.
+ *
+ * @author Boyan Stoynov
+ */
+@Name("traffic.GridOccupancy")
+@Label("Grid Occupancy")
+@Category({"Traffic Simulation", "Grid"})
+@Description("Number of vehicles on the grid and waiting on it")
+@Period("1 s")
+@StackTrace(false)
+public class GridOccupancyEvent extends jdk.jfr.Event {
+    @Label("Vehicles")
+    @Description("Number of vehicles on the grid")
+    int vehicles;
+
+    @Label("Blocked Vehicles")
+    @Description("Number of vehicles waiting for an occupied position")
+    int blockedVehicles;
+
+    @Label("Exited Vehicles")
+    @Description("Number of vehicles that have left the grid so far")
+    long exitedVehicles;
+
+    @Label("Evicted Vehicles")
+    @Description("Number of vehicles taken off the grid to resolve gridlocks so far")
+    long evictedVehicles;
+
+    @Label("Entry Rejections")
+    @Description("Number of vehicles that found their entry occupied and had to retry so far")
+    long entryRejections;
+}
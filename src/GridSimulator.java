@@ -1,9 +1,17 @@
+import java.lang.reflect.InvocationTargetException;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.PriorityQueue;
 import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.ReentrantLock;
+import jdk.jfr.FlightRecorder;
 
 /**
  * Class to model and simulate a grid of moving Vehicles
@@ -15,28 +23,52 @@ import java.util.concurrent.locks.ReentrantLock;
  * could further take additional horizontal and vertical
  * generators. When such a generator is placed all rows or
  * columns it is responsible for are removed from the default's
- * responsibilities. The class implements the Traversable
+ * responsibilities. The lanes of all generators are compiled into
+ * a routing table of primitive lane sets, so adding a Vehicle needs
+ * no map lookups. Crossings are first come, first served unless
+ * adaptive traffic signals are enabled, in which case a
+ * SignalController decides which axis may enter each group of
+ * crossings. The class implements the Traversable
  * interface allowing vehicles to move along the grid. It
  * also implements the ReadOnlyGrid interface to be used by
- * a class that visualises the simulation.
+ * a class that visualises the simulation. The number of vehicles
+ * in each block of the grid is kept up to date in a DensityMap,
+ * sized to fit the terminal given in the SimulationConfig class.
+ * The vehicles on the grid are kept in a GridStorage, on the Java
+ * heap or in native memory as set in the SimulationConfig class.
 
  * @author Boyan Stoynov
  */
-public class GridSimulator implements ReadOnlyGrid, Traversable {
-    /* 2d array to store the Vehicle objects */
-    private final Vehicle[][] trafficGrid;
-    /* The default generator for adding Vehicle objects */
-    private TrafficGenerator defaultGenerator;
-    /* Rows where the default generator can put traffic */
-    private ArrayList<Integer> defaultGeneratorRows;
-    /* Columns where the default generator can put traffic */
-    private ArrayList<Integer> defaultGeneratorCols;
-    /* Stores the generators used to put traffic horizontally
-     * and the rows on which they can put the Vehicles */
-    private HashMap<TrafficGenerator, ArrayList<Integer>> horizontalGeneratorMap;
-    /* Stores the generators used to put traffic vertically
-     * and the columns on which they can put the Vehicles */
-    private HashMap<TrafficGenerator, ArrayList<Integer>> verticalGeneratorMap;
+public class GridSimulator implements ReadOnlyGrid, TrafficNetwork {
+    /* Storage of the Vehicle on each position of the grid */
+    private final GridStorage storage;
+    /* Number of rows of the grid */
+    private final int rows;
+    /* Number of columns of the grid */
+    private final int columns;
+    /* Axis index of the rows in the routing table */
+    private static final int HORIZONTAL = 0;
+    /* Axis index of the columns in the routing table */
+    private static final int VERTICAL = 1;
+    /* Axis of a default generator's lane range */
+    private static final int DEFAULT = -1;
+    /* Generators added to the grid, indexed by their route index */
+    private final ArrayList<TrafficGenerator> generators;
+    /* Route index of each generator added to the grid. Kept by the
+     * grid, so a generator can be added to several grids. */
+    private final ConcurrentHashMap<TrafficGenerator, Integer> routeIndices;
+    /* Lane ranges added for the generators, each stored
+     * as {route index, axis, from, to} */
+    private final ArrayList<int[]> generatorRanges;
+    /* Lanes of each generator indexed by axis and route index.
+     * Null whenever it has to be compiled again. */
+    private volatile LaneSet[][] routingTable;
+    /* Policy used to choose the lane of a new Vehicle */
+    private volatile LaneSelectionPolicy laneSelectionPolicy;
+    /* Number of vehicles travelling along each row */
+    private final AtomicIntegerArray rowVehicleCounts;
+    /* Number of vehicles travelling along each column */
+    private final AtomicIntegerArray columnVehicleCounts;
     /* Random object to get random numbers for rows/columns
      * when putting traffic */
     private final Random random;
@@ -48,6 +80,48 @@ public class GridSimulator implements ReadOnlyGrid, Traversable {
     private final ReentrantLock vehicleLock;
     /* Condition to check whether a position is occupied  */
     private final Condition condition;
+    /* Vehicle counts for each block of the grid */
+    private final DensityMap densityMap;
+    /* Controller of the traffic signals, null if crossings are uncontrolled */
+    private SignalController signalController;
+    /* Monitors started by enableGridlockDetection, guarded by this object */
+    private final ArrayList<GridlockMonitor> gridlockMonitors;
+    /* Whether the grid has been closed and its storage released */
+    private volatile boolean closed;
+    /* Number of vehicles that have left the grid at the end of their trip */
+    private final LongAdder exitedVehicles;
+    /* Number of vehicles taken off the grid to resolve gridlocks */
+    private final LongAdder evictedVehicles;
+    /* Precomputed routes towards every destination lane, replaced
+     * together with the directions under the lock */
+    private volatile NextHopTable nextHopTable;
+    /* Share of new vehicles given a destination lane */
+    private volatile double turningProbability;
+    /* Publisher of the grid's activity to subscribers */
+    private final GridEventPublisher eventPublisher;
+    /* Vehicles waiting for an occupied position, guarded by the lock */
+    private final HashSet<Vehicle> blockedVehicles;
+    /* Number of vehicles generators tried to put on an entry position */
+    private final LongAdder entryAttempts;
+    /* Number of those vehicles that found their first entry position occupied */
+    private final LongAdder entryRejections;
+    /* Vehicles waiting for each position that a platoon move may
+     * advance, by position index, guarded by the lock */
+    private final PositionWaiters positionWaiters;
+    /* Number of vehicles moved along by the vehicle ahead of them */
+    private final LongAdder platoonMoves;
+    /* Simulated milliseconds between occupancy samples when fast-forwarding */
+    private static final int FAST_FORWARD_SAMPLE = 100;
+    /* Simulated milliseconds of samples averaged into each fast-forward window */
+    private static final int FAST_FORWARD_WINDOW = 1000;
+    /* Number of consecutive steady windows after which occupancy is stable */
+    private static final int STABLE_WINDOWS = 3;
+    /* Largest change in mean occupancy between steady windows */
+    private static final double STABLE_TOLERANCE = 0.05;
+    /* Flight Recorder hook committing occupancy events, null if disabled */
+    private Runnable occupancyHook;
+    /* Clock the waits of vehicles are timed with */
+    private final SimulationClock clock;
 
     /**
      * Creates a GridSimulator object with as many rows and columns
@@ -55,90 +129,229 @@ public class GridSimulator implements ReadOnlyGrid, Traversable {
      * are westbound and all vertical lanes are southbound.
      */
     public GridSimulator() {
-        trafficGrid = new Vehicle[SimulationConfig.getGridRows()][SimulationConfig.getGridColumns()];
+        rows = SimulationConfig.getGridRows();
+        columns = SimulationConfig.getGridColumns();
+        if (SimulationConfig.getGridStorageMode() == GridStorageMode.OffHeap)
+            storage = createOffHeapStorage(rows, columns);
+        else
+            storage = new HeapGridStorage(rows, columns);
 
         // Sets all horizontal lanes' Direction to West
-        horizontalDirections = new Direction[trafficGrid.length];
+        horizontalDirections = new Direction[rows];
         Arrays.fill(horizontalDirections, Direction.West);
         // Sets all vertical lanes' Direction to South.
-        verticalDirections = new Direction[trafficGrid[0].length];
+        verticalDirections = new Direction[columns];
         Arrays.fill(verticalDirections, Direction.South);
         random = new Random();
 
+        generators = new ArrayList<>();
+        gridlockMonitors = new ArrayList<>();
+        routeIndices = new ConcurrentHashMap<>();
+        generatorRanges = new ArrayList<>();
+        laneSelectionPolicy = LaneSelectionPolicy.Weighted;
+        rowVehicleCounts = new AtomicIntegerArray(rows);
+        columnVehicleCounts = new AtomicIntegerArray(columns);
+
         vehicleLock = new ReentrantLock();
         condition = vehicleLock.newCondition();
+        exitedVehicles = new LongAdder();
+        evictedVehicles = new LongAdder();
+        blockedVehicles = new HashSet<>();
+        eventPublisher = new GridEventPublisher(65536);
+        nextHopTable = new NextHopTable(horizontalDirections, verticalDirections);
+        entryAttempts = new LongAdder();
+        entryRejections = new LongAdder();
+        positionWaiters = new PositionWaiters();
+        platoonMoves = new LongAdder();
+        clock = SimulationConfig.getClock();
+        densityMap = new DensityMap(rows, columns,
+                SimulationConfig.getTerminalRows(), SimulationConfig.getTerminalColumns());
+    }
+
+    /**
+     * Creates an OffHeapGridStorage, which is built from its own
+     * source root and loaded by name, so the rest of the simulator
+     * builds and runs without the Foreign Memory API.
+     * @param rows number of rows
+     * @param columns number of columns
+     * @return GridStorage in native memory
+     * @throws IllegalStateException if OffHeapGridStorage is not on the class path or can't be loaded
+     */
+    private static GridStorage createOffHeapStorage(int rows, int columns) {
+        try {
+            return Class.forName("OffHeapGridStorage").asSubclass(GridStorage.class)
+                    .getConstructor(int.class, int.class).newInstance(rows, columns);
+        } catch (InvocationTargetException e) {
+            if (e.getCause() instanceof RuntimeException)
+                throw (RuntimeException) e.getCause();
+            throw new IllegalStateException("Could not create the off-heap storage", e.getCause());
+        } catch (ClassNotFoundException e) {
+            throw new IllegalStateException("Off-heap storage needs OffHeapGridStorage from src-offheap "
+                    + "on the class path, see the README", e);
+        } catch (LinkageError e) {
+            throw new IllegalStateException("OffHeapGridStorage could not be loaded, "
+                    + "on JDK 21 it needs --enable-preview, see the README", e);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Could not create the off-heap storage", e);
+        }
     }
 
     /**
      * Adds a generator that can put traffic on all columns and
      * rows of the grid. Any horizontal and vertical generators
-     * added after the default will reduce the rows/columns that
-     * the generator is responsible for.
+     * added to the grid, before or after the default, reduce
+     * the rows/columns that the generator is responsible for.
      * E.g - if a horizontal generator is added to rows 1 to 10,
      * the default generator will no longer put its traffic there.
      * @param generator TrafficGenerator object
      */
     public void addDefaultGenerator(TrafficGenerator generator) {
-        defaultGenerator = generator;
-        defaultGeneratorRows = new ArrayList<>();
-        for (int i = 0; i < trafficGrid.length; i++) {
-            defaultGeneratorRows.add(i);
-        }
-        defaultGeneratorCols = new ArrayList<>();
-        for (int i = 0; i < trafficGrid[0].length; i++) {
-            defaultGeneratorCols.add(i);
-        }
+        addGeneratorRange(generator, DEFAULT, 0, 0);
     }
 
     /**
      * Adds a generator that can put traffic only on the specified
-     * rows of the grid. If a default generator has been added
-     * previously, it will no longer put traffic on these rows.
+     * rows of the grid. If a default generator has been added,
+     * it will no longer put traffic on these rows. Rows shared with
+     * other generators are weighted down, so that each generator puts
+     * less of its traffic on them. A generator added more than once
+     * puts traffic on all of its ranges.
      * @param generator TrafficGenerator object
      * @param from from row (inclusive)
      * @param to to row (exclusive)
      */
     public void addHorizontalGenerator(TrafficGenerator generator, int from, int to){
-        // Initialises the HashMap if it hasn't been already
-        if (horizontalGeneratorMap == null)
-            horizontalGeneratorMap = new HashMap<>();
-
-        // Puts the rows into an ArrayList
-        ArrayList<Integer> rows = new ArrayList<>();
-        for (int i = from; i < to; i++) {
-            rows.add(i);
-        }
-
-        // Removes the rows from the default generators' responsibility
-        if (defaultGeneratorRows != null)
-            defaultGeneratorRows.removeAll(rows);
-        // Puts this generator and the rows it is responsible for in the Hashmap
-        horizontalGeneratorMap.put(generator, rows);
+        addGeneratorRange(generator, HORIZONTAL, from, to);
     }
 
     /**
      * Adds a generator that can put traffic only on the specified
-     * columns of the grid. If a default generator has been added
-     * previously, it will no longer put traffic on these columns.
+     * columns of the grid. If a default generator has been added,
+     * it will no longer put traffic on these columns. Columns shared
+     * with other generators are weighted down, so that each generator
+     * puts less of its traffic on them. A generator added more than
+     * once puts traffic on all of its ranges.
      * @param generator TrafficGenerator object
      * @param from from row (inclusive)
      * @param to to row (exclusive)
      */
     public void addVerticalGenerator(TrafficGenerator generator, int from, int to){
-        // Initialises the HashMap if it hasn't been already
-        if(verticalGeneratorMap == null)
-            verticalGeneratorMap = new HashMap<>();
+        addGeneratorRange(generator, VERTICAL, from, to);
+    }
 
-        // Puts the columns into an ArrayList
-        ArrayList<Integer> columns = new ArrayList<>();
-        for (int i = from; i < to; i++) {
-            columns.add(i);
+    /**
+     * Sets the policy used to choose the lane of each new Vehicle.
+     * The default is LaneSelectionPolicy.Weighted.
+     * @param policy LaneSelectionPolicy object
+     */
+    public void setLaneSelectionPolicy(LaneSelectionPolicy policy) {
+        laneSelectionPolicy = policy;
+    }
+
+    /**
+     * Records the lane range of a generator, giving the generator
+     * a route index if it is new to the grid. The routing table is
+     * compiled again when the next Vehicle is added.
+     * @param generator TrafficGenerator object
+     * @param axis HORIZONTAL, VERTICAL or DEFAULT
+     * @param from from lane (inclusive)
+     * @param to to lane (exclusive)
+     */
+    private synchronized void addGeneratorRange(TrafficGenerator generator, int axis, int from, int to) {
+        Integer route = routeIndices.get(generator);
+        if (route == null) {
+            route = generators.size();
+            generators.add(generator);
+            routeIndices.put(generator, route);
         }
-        // Removes the columns from the default generators' responsibility
-        if (defaultGeneratorCols != null)
-            defaultGeneratorCols.removeAll(columns);
-        // Puts this generator and the columns it is responsible for in the Hashmap
-        verticalGeneratorMap.put(generator, columns);
+
+        generatorRanges.add(new int[] {route, axis, from, to});
+        routingTable = null;
+    }
+
+    /**
+     * Compiles the lane ranges of all generators into the routing
+     * table. Each lane owned by several generators gets a weight of
+     * one over the number of owners in each of them. The default
+     * generator gets the lanes no other generator owns. Runs in time
+     * linear to the number of lanes in all ranges.
+     * @return LaneSet[][] routing table
+     */
+    private synchronized LaneSet[][] compileRoutingTable() {
+        // Another thread may have compiled the table already
+        if (routingTable != null)
+            return routingTable;
+
+        int routes = generators.size();
+        int[][] owners = {new int[rows], new int[columns]};
+        int[][] sizes = new int[2][routes];
+
+        // Counts the owners of each lane and the size of each route
+        for (int[] range : generatorRanges) {
+            if (range[1] != DEFAULT) {
+                for (int lane = range[2]; lane < range[3]; lane++) {
+                    owners[range[1]][lane]++;
+                }
+                sizes[range[1]][range[0]] += range[3] - range[2];
+            }
+        }
+        int[] freeLanes = new int[2];
+        for (int axis = HORIZONTAL; axis <= VERTICAL; axis++) {
+            for (int count : owners[axis]) {
+                if (count == 0)
+                    freeLanes[axis]++;
+            }
+        }
+        for (int[] range : generatorRanges) {
+            if (range[1] == DEFAULT) {
+                sizes[HORIZONTAL][range[0]] += freeLanes[HORIZONTAL];
+                sizes[VERTICAL][range[0]] += freeLanes[VERTICAL];
+            }
+        }
+
+        // Fills the lanes and weights of each route
+        int[][][] lanes = new int[2][routes][];
+        double[][][] weights = new double[2][routes][];
+        int[][] filled = new int[2][routes];
+        for (int axis = HORIZONTAL; axis <= VERTICAL; axis++) {
+            for (int route = 0; route < routes; route++) {
+                lanes[axis][route] = new int[sizes[axis][route]];
+                weights[axis][route] = new double[sizes[axis][route]];
+            }
+        }
+        for (int[] range : generatorRanges) {
+            int route = range[0];
+            for (int axis = HORIZONTAL; axis <= VERTICAL; axis++) {
+                if (range[1] != axis && range[1] != DEFAULT)
+                    continue;
+
+                int[] routeLanes = lanes[axis][route];
+                double[] routeWeights = weights[axis][route];
+                if (range[1] == DEFAULT) {
+                    for (int lane = 0; lane < owners[axis].length; lane++) {
+                        if (owners[axis][lane] == 0) {
+                            routeLanes[filled[axis][route]] = lane;
+                            routeWeights[filled[axis][route]++] = 1.0;
+                        }
+                    }
+                }
+                else {
+                    for (int lane = range[2]; lane < range[3]; lane++) {
+                        routeLanes[filled[axis][route]] = lane;
+                        routeWeights[filled[axis][route]++] = 1.0 / owners[axis][lane];
+                    }
+                }
+            }
+        }
+
+        LaneSet[][] table = new LaneSet[2][routes];
+        for (int axis = HORIZONTAL; axis <= VERTICAL; axis++) {
+            for (int route = 0; route < routes; route++) {
+                table[axis][route] = new LaneSet(lanes[axis][route], weights[axis][route]);
+            }
+        }
+        routingTable = table;
+        return table;
     }
 
     /**
@@ -147,147 +360,646 @@ public class GridSimulator implements ReadOnlyGrid, Traversable {
      * @return Vehicle[][] traffic grid
      */
     public Vehicle[][] getTrafficGrid() {
-        return Arrays.copyOf(trafficGrid, trafficGrid.length);
+        checkOpen();
+        Vehicle[][] copy = new Vehicle[rows][columns];
+        for (int row = 0; row < rows; row++) {
+            for (int col = 0; col < columns; col++) {
+                copy[row][col] = storage.get(row, col);
+            }
+        }
+        return copy;
+    }
+
+    /**
+     * Returns the number of rows of the grid.
+     * @return int number of rows
+     */
+    public int getRows() {
+        return rows;
+    }
+
+    /**
+     * Returns the number of columns of the grid.
+     * @return int number of columns
+     */
+    public int getColumns() {
+        return columns;
+    }
+
+    /**
+     * Returns the Vehicle at a position of the grid.
+     * @param row row of the position
+     * @param col column of the position
+     * @return Vehicle at the position, null if it is unoccupied
+     */
+    public Vehicle getVehicle(int row, int col) {
+        checkOpen();
+        return storage.get(row, col);
+    }
+
+    /**
+     * Shuts the grid down and releases the memory of its storage.
+     * The generators added to the grid and its gridlock monitors are
+     * stopped, the remaining vehicles are taken off the grid and their
+     * threads waited for, and then the signals are stopped, so none of
+     * them can touch the storage once it is released. Event
+     * subscriptions are completed once they have delivered the rest
+     * of their events. Anything else
+     * reading the grid, e.g. a visualiser, should be stopped first, as
+     * reading it afterwards throws IllegalStateException.
+     */
+    public void close() {
+        ArrayList<Thread> stopped = new ArrayList<>();
+        synchronized (this) {
+            for (TrafficGenerator generator : generators) {
+                generator.stopGeneration();
+                stopped.add(generator);
+            }
+            for (GridlockMonitor monitor : gridlockMonitors) {
+                monitor.interrupt();
+                stopped.add(monitor);
+            }
+        }
+        joinAll(stopped);
+
+        // Vehicles waiting for green still need the signals to leave
+        joinAll(evictAll());
+        if (signalController != null) {
+            signalController.interrupt();
+            joinAll(List.of(signalController));
+        }
+
+        // Subscribers get the evictions before their subscriptions complete
+        eventPublisher.close();
+        disableOccupancyEvents();
+        closed = true;
+        storage.close();
+    }
+
+    /**
+     * Waits for threads to finish.
+     * @param threads threads to wait for
+     */
+    private static void joinAll(List<? extends Thread> threads) {
+        for (Thread thread : threads) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Checks that the grid has not been closed.
+     * @throws IllegalStateException if the grid has been closed
+     */
+    private void checkOpen() {
+        if (closed)
+            throw new IllegalStateException("The grid has been closed and its storage released");
+    }
+
+    /**
+     * Returns a read-only view of the DensityMap that counts
+     * the vehicles in each block of the grid.
+     * @return ReadOnlyDensityMap of the grid
+     */
+    public ReadOnlyDensityMap getDensityMap() {
+        return densityMap;
     }
 
     /**
      * Adds a Vehicle generated by a TrafficGenerator into the
-     * grid.
+     * grid. Waits for a free entry position unless the calling
+     * thread is interrupted, in which case the Vehicle is not added.
+     * Vehicles of a generator that has no lanes on the grid are
+     * never added.
      * @param vhc Vehicle object
      * @param tg TrafficGenerator object
+     * @return boolean whether the Vehicle was added
      */
-    public void addVehicleToGrid(Vehicle vhc, TrafficGenerator tg) {
-        // If the generator that called the method is the default
-        if (tg == defaultGenerator) {
-            // Get a random grid axis to put the new Vehicle
-            int axis = random.nextInt(2);
-            // Add the vehicle to the respective axis
-            if (axis == 0)
-                addVehicleHorizontally(vhc, defaultGeneratorRows);
-            else
-                addVehicleVertically(vhc, defaultGeneratorCols);
-        }
-        // If another generator called this method
-        else {
-            // If it is a horizontal generator
-            if (horizontalGeneratorMap.containsKey(tg)) {
-                ArrayList<Integer> generatorRows = horizontalGeneratorMap.get(tg);
-                addVehicleHorizontally(vhc, generatorRows);
-            }
-            // If it is a vertical generator
-            else {
-                ArrayList<Integer> generatorCols = verticalGeneratorMap.get(tg);
-                addVehicleVertically(vhc, generatorCols);
+    public boolean addVehicleToGrid(Vehicle vhc, TrafficGenerator tg) {
+        LaneSet[][] table = routingTable;
+        if (table == null)
+            table = compileRoutingTable();
+
+        Integer route = routeIndices.get(tg);
+        if (route == null)
+            throw new IllegalArgumentException("The generator has not been added to the grid");
+        LaneSet rows = table[HORIZONTAL][route];
+        LaneSet columns = table[VERTICAL][route];
+        if (rows.size() == 0 && columns.size() == 0)
+            return false;
+
+        // Get a random grid axis if the generator can use both
+        if (columns.size() == 0 || (rows.size() > 0 && random.nextInt(2) == 0))
+            return addVehicleHorizontally(vhc, rows);
+        else
+            return addVehicleVertically(vhc, columns);
+    }
+
+    /**
+     * Picks a lane from the given ones according to the lane
+     * selection policy.
+     * @param lanes LaneSet to pick from
+     * @param horizontal whether the lanes are rows
+     * @return int lane, -1 if the LaneSet is empty
+     */
+    private int pickLane(LaneSet lanes, boolean horizontal) {
+        LaneSelectionPolicy policy = laneSelectionPolicy;
+        if (policy == LaneSelectionPolicy.Random)
+            return lanes.pickRandom(random);
+        else if (policy == LaneSelectionPolicy.Weighted)
+            return lanes.pickWeighted(random);
+
+        // Least occupied lane whose entry position is free
+        AtomicIntegerArray counts = horizontal ? rowVehicleCounts : columnVehicleCounts;
+        int best = -1;
+        int bestCount = Integer.MAX_VALUE;
+        for (int i = 0; i < lanes.size(); i++) {
+            int lane = lanes.get(i);
+            int count = counts.get(lane);
+            if (count < bestCount && isEntryFree(lane, horizontal)) {
+                best = lane;
+                bestCount = count;
             }
         }
+
+        // Every entry is occupied, any lane will have to be retried
+        return best >= 0 ? best : lanes.pickWeighted(random);
+    }
+
+    /**
+     * Checks if the first position of a lane is unoccupied.
+     * @param lane row or column
+     * @param horizontal whether the lane is a row
+     * @return boolean whether the entry is unoccupied
+     */
+    private boolean isEntryFree(int lane, boolean horizontal) {
+        Position entry = getEntryPosition(lane, horizontal);
+        return !storage.isOccupied(entry.getHorzPosition(), entry.getVertPosition());
+    }
+
+    /**
+     * Returns the first position of a lane.
+     * @param lane row or column
+     * @param horizontal whether the lane is a row
+     * @return Position entry of the lane
+     */
+    private Position getEntryPosition(int lane, boolean horizontal) {
+        if (horizontal)
+            return new Position(lane, horizontalDirections[lane] == Direction.West ? 0 : columns - 1);
+        else
+            return new Position(verticalDirections[lane] == Direction.South ? 0 : rows - 1, lane);
     }
 
     /**
      * Adds a vehicle randomly on one of the given rows in the grid.
      * @param vhc Vehicle object
      * @param positions rows that the Vehicle should be put in
+     * @return boolean whether the Vehicle was added
      */
-    private void addVehicleHorizontally(Vehicle vhc, ArrayList<Integer> positions) {
+    private boolean addVehicleHorizontally(Vehicle vhc, LaneSet positions) {
         int startRow;
         int startCol;
-        for (;;) {
-            //Get a random starting row from the ones provided
-            startRow = positions.get(random.nextInt(positions.size()));
+        EntryRetryEvent retryEvent = new EntryRetryEvent();
+        retryEvent.begin();
+        entryAttempts.increment();
+        int retries = 0;
+        for (;; retries++) {
+            // A vehicle that has to retry is rejected once, however many tries it takes
+            if (retries == 1)
+                entryRejections.increment();
+            // Gives up if the generator has been stopped
+            if (Thread.currentThread().isInterrupted()) {
+                commitEntryRetry(retryEvent, retries, false);
+                return false;
+            }
+            //Get a starting row from the ones provided
+            startRow = pickLane(positions, true);
             //Get the Direction of the randomly chosen row
             Direction dir = horizontalDirections[startRow];
             /* If it is westbound, try to put it on the left-hand side
-             * if it is unoccupied */
+             * if it is unoccupied, another generator may take it first */
             if (dir == Direction.West) {
                 startCol = 0;
-                if (trafficGrid[startRow][startCol] == null) {
-                    vhc.setDirection(Direction.West);
+                if (placeVehicle(vhc, startRow, startCol, Direction.West))
                     break;
-                }
             }
             /* If it is eastbound, try to put it on the right-hand side
              * if it is unoccupied */
             else {
-                startCol = trafficGrid[0].length - 1;
-                if (trafficGrid[startRow][startCol] == null) {
-                    vhc.setDirection(Direction.East);
+                startCol = columns - 1;
+                if (placeVehicle(vhc, startRow, startCol, Direction.East))
                     break;
-                }
             }
         }
 
-        // Puts the vehicle on the grid and set its position
-        trafficGrid[startRow][startCol] = vhc;
-        vhc.setPosition(new Position(startRow, startCol));
+        commitEntryRetry(retryEvent, retries, true);
+        return true;
     }
 
     /**
      * Adds a vehicle randomly on one of the given columns in the grid.
      * @param vhc Vehicle object
      * @param positions columns that the Vehicle should be put in
+     * @return boolean whether the Vehicle was added
      */
-    private void addVehicleVertically(Vehicle vhc, ArrayList<Integer> positions) {
+    private boolean addVehicleVertically(Vehicle vhc, LaneSet positions) {
         int startRow;
         int startCol;
-        for (;;) {
-            //Get a random starting column from the ones provided
-            startCol = positions.get(random.nextInt(positions.size()));
+        EntryRetryEvent retryEvent = new EntryRetryEvent();
+        retryEvent.begin();
+        entryAttempts.increment();
+        int retries = 0;
+        for (;; retries++) {
+            // A vehicle that has to retry is rejected once, however many tries it takes
+            if (retries == 1)
+                entryRejections.increment();
+            // Gives up if the generator has been stopped
+            if (Thread.currentThread().isInterrupted()) {
+                commitEntryRetry(retryEvent, retries, false);
+                return false;
+            }
+            //Get a starting column from the ones provided
+            startCol = pickLane(positions, false);
             //Get the Direction of the randomly chosen row
             Direction dir = verticalDirections[startCol];
             /* If it is southbound, try to put it on the top-most side
-             * if it is unoccupied */
+             * if it is unoccupied, another generator may take it first */
             if (dir == Direction.South) {
                 startRow = 0;
-                if (trafficGrid[startRow][startCol] == null) {
-                    vhc.setDirection(Direction.South);
+                if (placeVehicle(vhc, startRow, startCol, Direction.South))
                     break;
-                }
             }
             /* If it is northbound, try to put it on the bottom-most side
              * if it is unoccupied */
             else {
-                startRow = trafficGrid.length - 1;
-                if (trafficGrid[startRow][startCol] == null) {
-                    vhc.setDirection(Direction.North);
+                startRow = rows - 1;
+                if (placeVehicle(vhc, startRow, startCol, Direction.North))
                     break;
-                }
             }
         }
 
-        // Puts the vehicle on the grid and set its position
-        trafficGrid[startRow][startCol] = vhc;
-        vhc.setPosition(new Position(startRow, startCol));
+        commitEntryRetry(retryEvent, retries, true);
+        return true;
+    }
+
+    /**
+     * Puts a Vehicle on a Position of the grid if it is
+     * unoccupied and updates the counters of the grid.
+     * @param vhc Vehicle object
+     * @param row row of the Position
+     * @param col column of the Position
+     * @param dir Direction the Vehicle travels in
+     * @return boolean whether the Vehicle was put on the grid
+     */
+    private boolean placeVehicle(Vehicle vhc, int row, int col, Direction dir) {
+        // Sets the vehicle's position before others can see it on the grid
+        vhc.setPosition(new Position(row, col));
+        vhc.setDirection(dir);
+        if (!storage.place(row, col, vhc))
+            return false;
+
+        densityMap.vehicleEntered(row, col, dir);
+        if (getAxis(dir) == SignalController.HORIZONTAL)
+            rowVehicleCounts.incrementAndGet(row);
+        else
+            columnVehicleCounts.incrementAndGet(col);
+        assignDestination(vhc, row, col);
+        signalVehicleSpawned(vhc);
+        eventPublisher.publish(GridEventType.Spawn, vhc, vhc.getPosition());
+        return true;
+    }
+
+    /**
+     * Commits an EntryRetryEvent if putting a Vehicle on
+     * the grid took more than one try.
+     * @param event EntryRetryEvent begun before the first try
+     * @param retries number of tries that found the entry occupied
+     * @param added whether the Vehicle was put on the grid
+     */
+    private static void commitEntryRetry(EntryRetryEvent event, int retries, boolean added) {
+        if (retries == 0)
+            return;
+
+        event.end();
+        if (event.shouldCommit()) {
+            event.retries = retries;
+            event.added = added;
+            event.commit();
+        }
+    }
+
+    /**
+     * Gives a new Vehicle a random destination lane, with the
+     * turning probability, if the destination can be reached from
+     * where the Vehicle starts. Other vehicles drive straight.
+     * @param vhc Vehicle object
+     * @param row starting row
+     * @param col starting column
+     */
+    private void assignDestination(Vehicle vhc, int row, int col) {
+        if (turningProbability <= 0.0 || random.nextDouble() >= turningProbability)
+            return;
+
+        NextHopTable routes = nextHopTable;
+        int destination = random.nextInt(routes.getDestinationCount());
+        if (routes.getNextHop(destination, row, col) != NextHopTable.UNREACHABLE)
+            vhc.setDestination(destination);
+    }
+
+    /**
+     * Sets the share of new vehicles that are given a random
+     * destination lane and turn at crossings to reach it. The
+     * default is 0, i.e. all vehicles drive straight.
+     * @param probability probability between 0 and 1
+     */
+    public void setTurningProbability(double probability) {
+        turningProbability = probability;
+    }
+
+    /**
+     * Counts a new Vehicle inside its signal group if
+     * signals are used.
+     * @param vhc Vehicle object
+     */
+    private void signalVehicleSpawned(Vehicle vhc) {
+        if (signalController == null)
+            return;
+
+        vehicleLock.lock();
+        try {
+            signalController.vehicleEntered(signalController.getGroup(vhc.getPosition()), getAxis(vhc.getDirection()));
+        } finally {
+            vehicleLock.unlock();
+        }
     }
 
     /**
      * Advances the position of a given Vehicle object to the
-     * next available one.
+     * next available one. Vehicles queued behind it move along
+     * with it, see advancePlatoon.
      * @param vehicle Vehicle object
      */
     public void advancePosition(Vehicle vehicle) {
+        long lockStart = clock.nanoTime();
         vehicleLock.lock();
-        // Gets the current position of the Vehicle
+        vehicle.addLockWaitTime(clock.nanoTime() - lockStart);
+        // Gets the current position and Direction of the Vehicle
         Position currPos = vehicle.getPosition();
+        Direction currDir = vehicle.getDirection();
+        // Gets the Direction of the next move, which turns a routed Vehicle
+        Direction nextDir = getNextDirection(vehicle);
         // Gets the next position of the Vehicle
-        Position nextPos = getNextPosition(vehicle.getPosition(), vehicle.getDirection());
+        Position nextPos = getNextPosition(currPos, nextDir);
+
+        // Gets the signal groups the Vehicle leaves and enters, if signals are used
+        int axis = getAxis(nextDir);
+        int currGroup = -1;
+        int nextGroup = -1;
+        if (signalController != null) {
+            currGroup = signalController.getGroup(currPos);
+            nextGroup = signalController.getGroup(nextPos);
+        }
+        /* A route lost to reversed lanes may leave the Vehicle
+         * driving straight off the grid, it is removed on its
+         * next move instead. A Vehicle evicted while waiting for
+         * the lock has left the grid already. */
+        boolean onGrid = isOnGrid(nextPos) && !vehicle.isEvicted();
+        boolean crossesSignal = onGrid && currGroup != nextGroup;
 
         // Try to move the Vehicle to the next position if it is unoccupied
         try {
-            while (isOccupied(nextPos)) {
-                condition.await();
+            if (!onGrid)
+                return;
+
+            // Waits for green before entering a new signal group
+            if (crossesSignal) {
+                signalController.vehicleQueued(nextGroup, axis);
+                if (!signalController.isGreen(nextGroup, axis)) {
+                    long redStart = clock.nanoTime();
+                    signalController.awaitGreen(nextGroup, axis);
+                    vehicle.addBlockedTime(clock.nanoTime() - redStart);
+                }
+                // Taken off the grid while waiting for green
+                if (vehicle.isEvicted())
+                    return;
             }
 
-            // Moves the vehicle from one its current position to its new position
-            trafficGrid[nextPos.getHorzPosition()][nextPos.getVertPosition()] = trafficGrid[currPos.getHorzPosition()][currPos.getVertPosition()];
-            trafficGrid[currPos.getHorzPosition()][currPos.getVertPosition()] = null;
-            // Sets the vehicle's position
-            vehicle.setPosition(nextPos);
+            for (;;) {
+                if (isOccupied(nextPos) && !awaitPosition(vehicle, currPos, nextPos, nextDir))
+                    return;
+                if (moveVehicle(vehicle, nextPos, nextDir))
+                    break;
+                // A generator put a vehicle on the position after it was checked
+            }
+            advancePlatoon(currPos);
         } catch (InterruptedException e) {
             e.printStackTrace();
         } finally {
+            if (crossesSignal)
+                signalController.vehicleDequeued(nextGroup, axis);
             vehicleLock.unlock();
         }
     }
 
+    /**
+     * Waits until the next Position of a Vehicle is unoccupied,
+     * letting the vehicle ahead move it along meanwhile. This should
+     * only be called while holding the grid's lock.
+     * @param vehicle Vehicle object
+     * @param currPos current Position of the Vehicle
+     * @param nextPos Position the Vehicle waits for
+     * @param nextDir Direction of the move
+     * @return boolean whether the Vehicle should still move itself, false
+     * if it was evicted or moved along while waiting
+     * @throws InterruptedException if interrupted while waiting
+     */
+    private boolean awaitPosition(Vehicle vehicle, Position currPos, Position nextPos, Direction nextDir)
+            throws InterruptedException {
+        long blockedStart = clock.nanoTime();
+        BlockedWaitEvent waitEvent = new BlockedWaitEvent();
+        waitEvent.begin();
+        blockedVehicles.add(vehicle);
+        eventPublisher.publish(GridEventType.Block, vehicle, currPos);
+        // Lets the vehicle ahead move this one along, unless another already waits for the position
+        int nextRow = nextPos.getHorzPosition();
+        int nextCol = nextPos.getVertPosition();
+        long nextIndex = getIndex(nextPos);
+        positionWaiters.add(nextIndex, vehicle, nextDir);
+
+        while (vehicle.getPosition() == currPos && isOccupied(nextPos) && !vehicle.isEvicted()) {
+            // Keeps the wait-for graph up to date for the GridlockMonitor
+            vehicle.setBlockedBy(storage.get(nextRow, nextCol), blockedStart);
+            condition.await();
+        }
+        // A vehicle moved along has been counted out by the vehicle ahead
+        if (vehicle.getPosition() == currPos)
+            positionWaiters.remove(nextIndex, vehicle);
+        vehicle.setBlockedBy(null, 0);
+        blockedVehicles.remove(vehicle);
+        vehicle.addBlockedTime(clock.nanoTime() - blockedStart);
+        // Only waits longer than the event's threshold are recorded
+        waitEvent.end();
+        if (waitEvent.shouldCommit()) {
+            waitEvent.row = currPos.getHorzPosition();
+            waitEvent.column = currPos.getVertPosition();
+            waitEvent.evicted = vehicle.isEvicted();
+            waitEvent.commit();
+        }
+
+        // Taken off the grid by the GridlockMonitor while waiting
+        if (vehicle.isEvicted())
+            return false;
+        // Moved along by the vehicle ahead of it while waiting
+        return vehicle.getPosition() == currPos;
+    }
+
+    /**
+     * Moves a Vehicle from its current Position to the next one
+     * if it is unoccupied, and updates the counters of the grid.
+     * The next Position can only be taken meanwhile by a generator
+     * putting a Vehicle on an entry. This should only be called
+     * while holding the grid's lock.
+     * @param vehicle Vehicle object
+     * @param nextPos Position to move to
+     * @param nextDir Direction of the move
+     * @return boolean whether the Vehicle was moved
+     */
+    private boolean moveVehicle(Vehicle vehicle, Position nextPos, Direction nextDir) {
+        Position currPos = vehicle.getPosition();
+        Direction currDir = vehicle.getDirection();
+        int currAxis = getAxis(currDir);
+        int axis = getAxis(nextDir);
+
+        // Moves the vehicle from one its current position to its new position
+        if (!storage.move(currPos.getHorzPosition(), currPos.getVertPosition(),
+                nextPos.getHorzPosition(), nextPos.getVertPosition()))
+            return false;
+        // Sets the vehicle's position and Direction
+        vehicle.setPosition(nextPos);
+        vehicle.setDirection(nextDir);
+        densityMap.vehicleMoved(currPos.getHorzPosition(), currPos.getVertPosition(), currDir,
+                nextPos.getHorzPosition(), nextPos.getVertPosition(), nextDir);
+        // Moves the Vehicle to the lane it turned onto
+        if (currAxis != axis) {
+            if (currAxis == SignalController.HORIZONTAL) {
+                rowVehicleCounts.decrementAndGet(currPos.getHorzPosition());
+                columnVehicleCounts.incrementAndGet(nextPos.getVertPosition());
+            }
+            else {
+                columnVehicleCounts.decrementAndGet(currPos.getVertPosition());
+                rowVehicleCounts.incrementAndGet(nextPos.getHorzPosition());
+            }
+        }
+        if (signalController != null) {
+            int currGroup = signalController.getGroup(currPos);
+            int nextGroup = signalController.getGroup(nextPos);
+            if (currGroup != nextGroup || currAxis != axis) {
+                signalController.vehicleLeft(currGroup, currAxis);
+                signalController.vehicleEntered(nextGroup, axis);
+            }
+        }
+        eventPublisher.publish(GridEventType.Move, vehicle, nextPos);
+        return true;
+    }
+
+    /**
+     * Moves along the queue of vehicles waiting behind a freed
+     * Position: the vehicle waiting for it moves into it, which
+     * frees its own position for the vehicle waiting behind it,
+     * and so on. A jammed lane thus moves up in one critical section
+     * instead of every vehicle taking the lock in turn, and its
+     * vehicles only need to wake up once. The queue stops at a
+     * position more than one vehicle waits for, e.g. a crossing, so
+     * the vehicles there still compete for it. The vehicles waiting have
+     * already waited for their speed and passed any signal, so they
+     * are moved just as they would move themselves. The signal issued
+     * by the move of the first vehicle wakes them up once the lock is
+     * released, when they find they have been moved and return.
+     * This should only be called while holding the grid's lock.
+     * @param freedPos Position that has just been vacated
+     */
+    private void advancePlatoon(Position freedPos) {
+        Position freed = freedPos;
+        for (;;) {
+            long index = getIndex(freed);
+            Vehicle follower = positionWaiters.getSoleWaiter(index);
+            if (follower == null || follower.isEvicted())
+                return;
+
+            // A generator may have taken a freed entry, the follower then keeps waiting
+            Position followerPos = follower.getPosition();
+            if (!moveVehicle(follower, freed, positionWaiters.getDirection(index)))
+                return;
+
+            positionWaiters.remove(index, follower);
+            // The follower no longer waits for anyone
+            follower.setBlockedBy(null, 0);
+            blockedVehicles.remove(follower);
+            platoonMoves.increment();
+            freed = followerPos;
+        }
+    }
+
+    /**
+     * Returns the index of a Position, counting the positions
+     * row after row. Indices don't fit an int on grids with more
+     * than 2^31 positions.
+     * @param pos Position object
+     * @return long index of the Position
+     */
+    private long getIndex(Position pos) {
+        return (long) pos.getHorzPosition() * columns + pos.getVertPosition();
+    }
+
+    /**
+     * Returns the Direction of a Vehicle's next move. A Vehicle
+     * following a route turns onto the row or column given by the
+     * NextHopTable. A Vehicle whose destination became unreachable
+     * drops it and carries on straight.
+     * @param vehicle Vehicle object
+     * @return Direction of the next move
+     */
+    private Direction getNextDirection(Vehicle vehicle) {
+        int destination = vehicle.getDestination();
+        if (destination < 0)
+            return vehicle.getDirection();
+
+        Position pos = vehicle.getPosition();
+        byte hop = nextHopTable.getNextHop(destination, pos.getHorzPosition(), pos.getVertPosition());
+        if (hop == NextHopTable.ROW)
+            return horizontalDirections[pos.getHorzPosition()];
+        else if (hop == NextHopTable.COLUMN)
+            return verticalDirections[pos.getVertPosition()];
+
+        vehicle.setDestination(-1);
+        return vehicle.getDirection();
+    }
+
+    /**
+     * Checks if a Position lies within the grid.
+     * @param pos Position object
+     * @return boolean whether the Position is on the grid
+     */
+    private boolean isOnGrid(Position pos) {
+        return pos.getHorzPosition() >= 0 && pos.getHorzPosition() < rows
+                && pos.getVertPosition() >= 0 && pos.getVertPosition() < columns;
+    }
+
+    /**
+     * Returns the axis of the lanes a Direction of travel belongs to.
+     * @param dir Direction object
+     * @return int SignalController.HORIZONTAL or SignalController.VERTICAL
+     */
+    private int getAxis(Direction dir) {
+        if (dir == Direction.West || dir == Direction.East)
+            return SignalController.HORIZONTAL;
+        else
+            return SignalController.VERTICAL;
+    }
+
     /**
      * Checks if the Position in the grid is occupied by a car.
      * If unoccupied - signals the waiting threads.
@@ -295,7 +1007,7 @@ public class GridSimulator implements ReadOnlyGrid, Traversable {
      * @return boolean whether the row is occupied
      */
     private boolean isOccupied(Position pos) {
-        if (trafficGrid[pos.getHorzPosition()][pos.getVertPosition()] != null) {
+        if (storage.isOccupied(pos.getHorzPosition(), pos.getVertPosition())) {
             return true;
         } else {
             condition.signalAll();
@@ -333,15 +1045,31 @@ public class GridSimulator implements ReadOnlyGrid, Traversable {
      * @return boolean whether the vehicle can move further
      */
     public boolean canMove(Vehicle v) {
+        // Evicted vehicles have already left the grid
+        if (v.isEvicted())
+            return false;
+
         Position pos = v.getPosition();
+        // A routed Vehicle can move until it reaches its destination's exit
+        if (v.getDestination() >= 0) {
+            byte hop = nextHopTable.getNextHop(v.getDestination(), pos.getHorzPosition(), pos.getVertPosition());
+            if (hop == NextHopTable.EXIT)
+                return false;
+            else if (hop != NextHopTable.UNREACHABLE)
+                return true;
+
+            // Route lost to reversed lanes, carries on straight
+            v.setDestination(-1);
+        }
+
         Direction dir = v.getDirection();
 
         if (dir == Direction.West)
-            return pos.getVertPosition() != (trafficGrid[0].length - 1);
+            return pos.getVertPosition() != (columns - 1);
         else if (dir == Direction.East)
             return pos.getVertPosition() != 0;
         else if (dir == Direction.South)
-            return pos.getHorzPosition() != (trafficGrid.length - 1);
+            return pos.getHorzPosition() != (rows - 1);
         else
             return pos.getHorzPosition() != 0;
     }
@@ -352,35 +1080,584 @@ public class GridSimulator implements ReadOnlyGrid, Traversable {
      * @param v Vehicle object
      */
     public void removeVehicle(Vehicle v) {
+        // Holds the lock so that the Vehicle can't be evicted at the same time
+        vehicleLock.lock();
+        try {
+            // Evicted vehicles have been removed already
+            if (v.isEvicted())
+                return;
+
+            Position pos = v.getPosition();
+            storage.remove(pos.getHorzPosition(), pos.getVertPosition());
+            vehicleLeftGrid(v, pos);
+        } finally {
+            vehicleLock.unlock();
+        }
+    }
+
+    /**
+     * Takes a blocked Vehicle off the grid to resolve a gridlock
+     * and wakes up the vehicles waiting for its position. The Vehicle
+     * leaves the wait-for graph at once, so the gridlock is gone from
+     * it before the Vehicle's thread wakes up. A Vehicle evicted
+     * already is left alone, as its last position may have been taken
+     * by another since. This should only be called by a
+     * GridlockMonitor holding the lock.
+     * @param v Vehicle object
+     */
+    public void evictVehicle(Vehicle v) {
+        if (v.isEvicted())
+            return;
+
+        v.setBlockedBy(null, 0);
+        blockedVehicles.remove(v);
         Position pos = v.getPosition();
-        trafficGrid[pos.getHorzPosition()][pos.getVertPosition()] = null;
+        storage.remove(pos.getHorzPosition(), pos.getVertPosition());
+        v.evict();
+        vehicleLeftGrid(v, pos);
+        condition.signalAll();
+    }
+
+    /**
+     * Takes every Vehicle off the grid, e.g. to end a run without
+     * waiting for the traffic to drain. The vehicles finish their
+     * trips on their next move, without logging them. Generators
+     * should be stopped first, as they could put new vehicles on.
+     * @return List of the vehicles taken off the grid
+     */
+    public List<Vehicle> evictAll() {
+        ArrayList<Vehicle> evicted = new ArrayList<>();
+        vehicleLock.lock();
+        try {
+            for (int row = 0; row < rows; row++) {
+                for (int col = 0; col < columns; col++) {
+                    Vehicle v = storage.get(row, col);
+                    if (v != null) {
+                        evictVehicle(v);
+                        evicted.add(v);
+                    }
+                }
+            }
+        } finally {
+            vehicleLock.unlock();
+        }
+        return evicted;
     }
 
     /**
-     * Reverse the direction of the rows in the given range.
+     * Updates the counters of the grid for a Vehicle that
+     * is no longer on it. Evicted vehicles are counted apart
+     * from those that finished their trip.
+     * @param v Vehicle object
+     * @param pos last Position of the Vehicle
+     */
+    private void vehicleLeftGrid(Vehicle v, Position pos) {
+        densityMap.vehicleLeft(pos.getHorzPosition(), pos.getVertPosition(), v.getDirection());
+        if (v.getDirection() == Direction.West || v.getDirection() == Direction.East)
+            rowVehicleCounts.decrementAndGet(pos.getHorzPosition());
+        else
+            columnVehicleCounts.decrementAndGet(pos.getVertPosition());
+        if (v.isEvicted()) {
+            evictedVehicles.increment();
+            eventPublisher.publish(GridEventType.Evict, v, pos);
+        }
+        else {
+            exitedVehicles.increment();
+            eventPublisher.publish(GridEventType.Exit, v, pos);
+        }
+
+        if (signalController != null) {
+            vehicleLock.lock();
+            try {
+                signalController.vehicleLeft(signalController.getGroup(pos), getAxis(v.getDirection()));
+            } finally {
+                vehicleLock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Starts monitoring the vehicles waiting behind each other
+     * for gridlocks and long standstills.
+     * @param period milliseconds between each check
+     * @param minChainLength shortest chain of waiting vehicles reported
+     * @param minStall milliseconds a chain must be stalled for to be reported
+     * @param policy what to do with vehicles waiting in a cycle
+     * @return GridlockMonitor the started monitor
+     */
+    public synchronized GridlockMonitor enableGridlockDetection(int period, int minChainLength, int minStall,
+                                                                GridlockPolicy policy) {
+        GridlockMonitor monitor = new GridlockMonitor(this, vehicleLock, blockedVehicles, period,
+                minChainLength, minStall, policy);
+        gridlockMonitors.add(monitor);
+        monitor.start();
+        return monitor;
+    }
+
+    /**
+     * Puts vehicles on the grid so that the given share of its
+     * positions is occupied, half of them travelling along the rows
+     * and half along the columns. See prepopulate(double[], double[]).
+     * @param density share of positions to occupy, between 0 and 1
+     * @return List of the vehicles put on the grid, not started yet
+     */
+    public List<Vehicle> prepopulate(double density) {
+        double[] rowDensities = new double[rows];
+        double[] columnDensities = new double[columns];
+        Arrays.fill(rowDensities, density / 2);
+        Arrays.fill(columnDensities, density / 2);
+        return prepopulate(rowDensities, columnDensities);
+    }
+
+    /**
+     * Puts vehicles on the grid in one pass, so that it does not
+     * have to fill up from empty before measurements are meaningful.
+     * Each unoccupied position is taken by a vehicle travelling along
+     * its row with the density of the row, otherwise by one travelling
+     * along its column with the density of the column. Densities of a
+     * position's row and column adding up to more than 1 favour the row.
+     * Vehicles travel in the directions of their lanes and get their
+     * speeds from a generator that puts traffic on the lane; lanes
+     * without a generator are left empty. The vehicles are not
+     * monitored, as their trips don't start at an entry. This should
+     * be called after the generators have been added and before
+     * starting them. The vehicles are started with startVehicles,
+     * optionally after fast-forwarding.
+     * @param rowDensities share of each row's positions to occupy
+     * @param columnDensities share of each column's positions to occupy
+     * @return List of the vehicles put on the grid, not started yet
+     */
+    public List<Vehicle> prepopulate(double[] rowDensities, double[] columnDensities) {
+        LaneSet[][] table = routingTable;
+        if (table == null)
+            table = compileRoutingTable();
+        TrafficGenerator[][] rowGenerators = getLaneGenerators(table[HORIZONTAL], rows);
+        TrafficGenerator[][] columnGenerators = getLaneGenerators(table[VERTICAL], columns);
+
+        ArrayList<Vehicle> vehicles = new ArrayList<>();
+        vehicleLock.lock();
+        try {
+            for (int row = 0; row < rows; row++) {
+                for (int col = 0; col < columns; col++) {
+                    if (storage.isOccupied(row, col))
+                        continue;
+
+                    // Picks the lane of the new vehicle, if any
+                    double pick = random.nextDouble();
+                    TrafficGenerator[] laneGenerators;
+                    Direction dir;
+                    if (pick < rowDensities[row]) {
+                        laneGenerators = rowGenerators[row];
+                        dir = horizontalDirections[row];
+                    }
+                    else if (pick < rowDensities[row] + columnDensities[col]) {
+                        laneGenerators = columnGenerators[col];
+                        dir = verticalDirections[col];
+                    }
+                    else
+                        continue;
+                    if (laneGenerators.length == 0)
+                        continue;
+
+                    TrafficGenerator tg = laneGenerators[random.nextInt(laneGenerators.length)];
+                    Vehicle v = new Vehicle(tg.getRandomSpeed(), this);
+                    if (placeVehicle(v, row, col, dir))
+                        vehicles.add(v);
+                }
+            }
+        } finally {
+            vehicleLock.unlock();
+        }
+        return vehicles;
+    }
+
+    /**
+     * Returns the generators that put traffic on each lane of an axis.
+     * @param routes LaneSets of every generator for the axis
+     * @param laneCount number of lanes of the axis
+     * @return TrafficGenerator[][] generators of each lane
+     */
+    private TrafficGenerator[][] getLaneGenerators(LaneSet[] routes, int laneCount) {
+        int[] counts = new int[laneCount];
+        for (LaneSet route : routes) {
+            for (int i = 0; i < route.size(); i++) {
+                counts[route.get(i)]++;
+            }
+        }
+
+        TrafficGenerator[][] laneGenerators = new TrafficGenerator[laneCount][];
+        for (int lane = 0; lane < laneCount; lane++) {
+            laneGenerators[lane] = new TrafficGenerator[counts[lane]];
+        }
+        for (int route = 0; route < routes.length; route++) {
+            for (int i = 0; i < routes[route].size(); i++) {
+                int lane = routes[route].get(i);
+                laneGenerators[lane][--counts[lane]] = generators.get(route);
+            }
+        }
+        return laneGenerators;
+    }
+
+    /**
+     * Runs the grid on the calling thread, without any Vehicle
+     * threads, until its occupancy is stable or the given simulated
+     * time has passed. Each vehicle moves once every speed milliseconds
+     * of simulated time if the position ahead is free, and each
+     * generator puts vehicles on the grid at its frequency. Occupancy
+     * is stable when the mean number of vehicles on the grid over a
+     * second changes by less than 5% for 3 seconds in a row, after
+     * running for at least as long as a vehicle of average speed takes
+     * to cross the grid, since occupancy drifts slowly on a large grid. Traffic
+     * signals are not obeyed while fast-forwarding. Vehicles that leave
+     * the grid are taken off the list and new ones added to it. This
+     * should be called before starting the generators and vehicles.
+     * @param vehicles vehicles on the grid, e.g. from prepopulate
+     * @param maxTime maximum simulated milliseconds to run for
+     * @return long simulated milliseconds run for
+     */
+    public long fastForward(List<Vehicle> vehicles, long maxTime) {
+        LaneSet[][] table = routingTable;
+        if (table == null)
+            table = compileRoutingTable();
+
+        /* Pending moves as {time, sequence, index}, where index is
+         * that of a vehicle or -1 - index that of a generator. The
+         * sequence keeps moves due at the same time in order. */
+        PriorityQueue<long[]> moves = new PriorityQueue<>((a, b) ->
+                a[0] != b[0] ? Long.compare(a[0], b[0]) : Long.compare(a[1], b[1]));
+        ArrayList<Vehicle> active = new ArrayList<>(vehicles);
+        IdentityHashMap<Vehicle, Integer> indices = new IdentityHashMap<>();
+        long[] moveTimes = new long[Math.max(16, active.size() * 2)];
+        long sequence = 0;
+        for (int i = 0; i < active.size(); i++) {
+            indices.put(active.get(i), i);
+            moveTimes[i] = active.get(i).getSpeed();
+            moves.add(new long[] {moveTimes[i], sequence++, i});
+        }
+        for (int i = 0; i < generators.size(); i++) {
+            moves.add(new long[] {generators.get(i).getFrequency(), sequence++, -1 - i});
+        }
+
+        int onGrid = active.size();
+        long minTime = (long) (SimulationConfig.getMaximumSpeed() + SimulationConfig.getMinimumSpeed()) / 2
+                * Math.max(rows, columns);
+        long now = 0;
+        long nextSample = FAST_FORWARD_SAMPLE;
+        long windowSum = 0;
+        int windowSamples = 0;
+        double lastMean = -1;
+        int steadyWindows = 0;
+
+        vehicleLock.lock();
+        try {
+            while (!moves.isEmpty() && steadyWindows < STABLE_WINDOWS) {
+                long[] move = moves.poll();
+                now = move[0];
+                if (now > maxTime)
+                    break;
+
+                // Samples the occupancy up to now and checks whether it is stable
+                for (; nextSample <= now; nextSample += FAST_FORWARD_SAMPLE) {
+                    windowSum += onGrid;
+                    if (++windowSamples == FAST_FORWARD_WINDOW / FAST_FORWARD_SAMPLE) {
+                        double mean = (double) windowSum / windowSamples;
+                        if (nextSample >= minTime && lastMean >= 0
+                                && Math.abs(mean - lastMean) <= STABLE_TOLERANCE * Math.max(lastMean, 1))
+                            steadyWindows++;
+                        else
+                            steadyWindows = 0;
+                        lastMean = mean;
+                        windowSum = 0;
+                        windowSamples = 0;
+                    }
+                }
+
+                int index = (int) move[2];
+                if (index < 0) {
+                    // Puts a vehicle on an entry of the generator, retrying until one is free
+                    TrafficGenerator tg = generators.get(-1 - index);
+                    Vehicle v = new Vehicle(tg.getRandomSpeed(), this);
+                    if (!fastForwardSpawn(v, table, -1 - index)) {
+                        moves.add(new long[] {now + 1, sequence++, index});
+                        continue;
+                    }
+
+                    if (active.size() == moveTimes.length)
+                        moveTimes = Arrays.copyOf(moveTimes, moveTimes.length * 2);
+                    indices.put(v, active.size());
+                    moveTimes[active.size()] = now + v.getSpeed();
+                    moves.add(new long[] {moveTimes[active.size()], sequence++, active.size()});
+                    active.add(v);
+                    onGrid++;
+                    moves.add(new long[] {now + tg.getFrequency(), sequence++, index});
+                    continue;
+                }
+
+                Vehicle v = active.get(index);
+                if (!canMove(v)) {
+                    Position pos = v.getPosition();
+                    storage.remove(pos.getHorzPosition(), pos.getVertPosition());
+                    vehicleLeftGrid(v, pos);
+                    active.set(index, null);
+                    onGrid--;
+                    continue;
+                }
+
+                Direction nextDir = getNextDirection(v);
+                Position nextPos = getNextPosition(v.getPosition(), nextDir);
+                if (!isOnGrid(nextPos))
+                    moveTimes[index] = now + v.getSpeed();
+                else {
+                    Vehicle blocker = storage.get(nextPos.getHorzPosition(), nextPos.getVertPosition());
+                    if (blocker == null) {
+                        moveVehicle(v, nextPos, nextDir);
+                        moveTimes[index] = now + v.getSpeed();
+                    }
+                    // Tries again once the vehicle ahead has had its turn
+                    else {
+                        Integer blockerIndex = indices.get(blocker);
+                        long blockerTime = blockerIndex == null ? 0 : moveTimes[blockerIndex];
+                        moveTimes[index] = Math.max(now + 1, blockerTime);
+                    }
+                }
+                moves.add(new long[] {moveTimes[index], sequence++, index});
+            }
+        } finally {
+            vehicleLock.unlock();
+        }
+
+        vehicles.clear();
+        for (Vehicle v : active) {
+            if (v != null)
+                vehicles.add(v);
+        }
+        return Math.min(now, maxTime);
+    }
+
+    /**
+     * Puts a Vehicle on an entry of a generator's lanes while
+     * fast-forwarding, if the entry picked is unoccupied.
+     * @param vhc Vehicle object
+     * @param table routing table of the grid
+     * @param route route index of the generator
+     * @return boolean whether the Vehicle was added
+     */
+    private boolean fastForwardSpawn(Vehicle vhc, LaneSet[][] table, int route) {
+        LaneSet rows = table[HORIZONTAL][route];
+        LaneSet columns = table[VERTICAL][route];
+        if (rows.size() == 0 && columns.size() == 0)
+            return false;
+
+        // Get a random grid axis if the generator can use both
+        boolean horizontal = columns.size() == 0 || (rows.size() > 0 && random.nextInt(2) == 0);
+        int lane = pickLane(horizontal ? rows : columns, horizontal);
+        Position entry = getEntryPosition(lane, horizontal);
+        return placeVehicle(vhc, entry.getHorzPosition(), entry.getVertPosition(),
+                horizontal ? horizontalDirections[lane] : verticalDirections[lane]);
+    }
+
+    /**
+     * Starts the threads of vehicles put on the grid by
+     * prepopulate or fastForward, all at once.
+     * @param vehicles vehicles to start
+     */
+    public void startVehicles(List<Vehicle> vehicles) {
+        for (Vehicle v : vehicles) {
+            v.start();
+        }
+    }
+
+    /**
+     * Puts vehicles on the grid at the given density, optionally
+     * fast-forwards it until its occupancy is stable and starts the
+     * vehicles. This should be called after the generators have been
+     * added and before starting them.
+     * @param density share of positions to occupy, between 0 and 1
+     * @param maxFastForwardTime maximum simulated milliseconds to fast-forward, 0 not to
+     * @return int number of vehicles started
+     */
+    public int warmStart(double density, long maxFastForwardTime) {
+        List<Vehicle> vehicles = prepopulate(density);
+        if (maxFastForwardTime > 0)
+            fastForward(vehicles, maxFastForwardTime);
+        startVehicles(vehicles);
+        return vehicles.size();
+    }
+
+    /**
+     * Starts committing GridOccupancyEvents with the vehicle
+     * counts of the grid. Flight Recorder only calls for them
+     * while it is recording, so this costs nothing otherwise.
+     */
+    public synchronized void enableOccupancyEvents() {
+        if (occupancyHook == null) {
+            occupancyHook = this::commitOccupancyEvent;
+            FlightRecorder.addPeriodicEvent(GridOccupancyEvent.class, occupancyHook);
+        }
+    }
+
+    /**
+     * Stops committing GridOccupancyEvents, so the grid
+     * is no longer referenced by Flight Recorder.
+     */
+    public synchronized void disableOccupancyEvents() {
+        if (occupancyHook != null) {
+            FlightRecorder.removePeriodicEvent(occupancyHook);
+            occupancyHook = null;
+        }
+    }
+
+    /**
+     * Commits a GridOccupancyEvent with the current vehicle
+     * counts of the grid.
+     */
+    private void commitOccupancyEvent() {
+        GridOccupancyEvent event = new GridOccupancyEvent();
+        int vehicles = 0;
+        for (int i = 0; i < rowVehicleCounts.length(); i++) {
+            vehicles += rowVehicleCounts.get(i);
+        }
+        for (int i = 0; i < columnVehicleCounts.length(); i++) {
+            vehicles += columnVehicleCounts.get(i);
+        }
+        event.vehicles = vehicles;
+
+        vehicleLock.lock();
+        try {
+            event.blockedVehicles = blockedVehicles.size();
+        } finally {
+            vehicleLock.unlock();
+        }
+        event.exitedVehicles = exitedVehicles.sum();
+        event.evictedVehicles = evictedVehicles.sum();
+        event.entryRejections = entryRejections.sum();
+        event.commit();
+    }
+
+    /**
+     * Returns the publisher of the grid's activity. Subscribers
+     * receive batches of spawn, move, block and exit events.
+     * @return GridEventPublisher of the grid
+     */
+    public GridEventPublisher getEventPublisher() {
+        return eventPublisher;
+    }
+
+    /**
+     * Returns the number of vehicles that have left the grid at
+     * the end of their trip since it was created. Evicted vehicles
+     * are not included.
+     * @return long number of vehicles
+     */
+    public long getExitedVehicleCount() {
+        return exitedVehicles.sum();
+    }
+
+    /**
+     * Returns the number of vehicles taken off the grid to
+     * resolve gridlocks since it was created.
+     * @return long number of vehicles
+     */
+    public long getEvictedVehicleCount() {
+        return evictedVehicles.sum();
+    }
+
+    /**
+     * Returns the number of vehicles generators have tried to
+     * put on an entry position since the grid was created.
+     * @return long number of vehicles
+     */
+    public long getEntryAttempts() {
+        return entryAttempts.sum();
+    }
+
+    /**
+     * Returns the number of vehicles that found their first entry
+     * position occupied and had to retry, counted once each
+     * however many retries they took.
+     * @return long number of rejected vehicles
+     */
+    public long getEntryRejections() {
+        return entryRejections.sum();
+    }
+
+    /**
+     * Returns the number of vehicles moved along by the vehicle
+     * ahead of them rather than moving themselves.
+     * @return long number of platoon moves
+     */
+    public long getPlatoonMoveCount() {
+        return platoonMoves.sum();
+    }
+
+    /**
+     * Starts controlling the crossings of the grid with adaptive
+     * traffic signals. The crossings are split into square groups
+     * that each give green to either the rows or the columns. This
+     * should be called before any traffic is put on the grid.
+     * @param groupSize number of crossings along each side of a group
+     * @param minGreen minimum milliseconds a phase stays green
+     * @param maxGreen maximum milliseconds a phase stays green while the other axis waits
+     */
+    public void enableSignalControl(int groupSize, int minGreen, int maxGreen) {
+        signalController = new SignalController(rows, columns,
+                groupSize, minGreen, maxGreen, vehicleLock);
+        signalController.start();
+    }
+
+    /**
+     * Reverse the direction of the rows in the given range. The
+     * routes for the new directions are built before taking the lock,
+     * and vehicles see the new directions and routes together.
      * @param from from row (inclusive)
      * @param to to row (exclusive)
      */
-    public void reverseHorizontalDirection(int from, int to) {
+    public synchronized void reverseHorizontalDirection(int from, int to) {
+        Direction[] reversed = horizontalDirections.clone();
         for (int i = from; i < to; i++) {
-            if (horizontalDirections[i] == Direction.West)
-                horizontalDirections[i] = Direction.East;
+            if (reversed[i] == Direction.West)
+                reversed[i] = Direction.East;
             else
-                horizontalDirections[i] = Direction.West;
+                reversed[i] = Direction.West;
         }
+        setDirections(reversed, verticalDirections);
     }
 
     /**
-     * Reverse the direction of the columns in the given range.
+     * Reverse the direction of the columns in the given range. The
+     * routes for the new directions are built before taking the lock,
+     * and vehicles see the new directions and routes together.
      * @param from from row (inclusive)
      * @param to to row (exclusive)
      */
-    public void reverseVerticalDirection(int from, int to) {
+    public synchronized void reverseVerticalDirection(int from, int to) {
+        Direction[] reversed = verticalDirections.clone();
         for (int i = from; i < to; i++) {
-            if (verticalDirections[i] == Direction.South)
-                verticalDirections[i] = Direction.North;
+            if (reversed[i] == Direction.South)
+                reversed[i] = Direction.North;
             else
-                verticalDirections[i] = Direction.South;
+                reversed[i] = Direction.South;
+        }
+        setDirections(horizontalDirections, reversed);
+    }
+
+    /**
+     * Sets the direction of every lane and the routes that follow
+     * them. Only the routes are built without holding the lock, so
+     * this should only be called holding the grid's monitor, which
+     * keeps the directions from changing meanwhile.
+     * @param rowDirections new direction of each row
+     * @param columnDirections new direction of each column
+     */
+    private void setDirections(Direction[] rowDirections, Direction[] columnDirections) {
+        NextHopTable routes = new NextHopTable(rowDirections, columnDirections);
+        vehicleLock.lock();
+        try {
+            System.arraycopy(rowDirections, 0, horizontalDirections, 0, rows);
+            System.arraycopy(columnDirections, 0, verticalDirections, 0, columns);
+            nextHopTable = routes;
+        } finally {
+            vehicleLock.unlock();
         }
     }
 }
\ No newline at end of file
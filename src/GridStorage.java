@@ -0,0 +1,74 @@
+/**
+ * GridStorage is an interface that should be implemented by a
+ * class that holds which Vehicle occupies each position of a grid.
+ * Placing a Vehicle on a free position is atomic, so generators can
+ * put vehicles on the grid without holding the grid's lock. Moving
+ * and removing vehicles is done by the grid while holding its lock,
+ * and a move only succeeds if the position moved to is still free,
+ * as a generator may have just put a Vehicle on it.
+ *
+ * @author Boyan Stoynov
+ */
+public interface GridStorage {
+
+    /**
+     * Returns the number of rows of the grid.
+     * @return int number of rows
+     */
+    int getRows();
+
+    /**
+     * Returns the number of columns of the grid.
+     * @return int number of columns
+     */
+    int getColumns();
+
+    /**
+     * Returns the Vehicle at a position.
+     * @param row row of the position
+     * @param col column of the position
+     * @return Vehicle at the position, null if it is unoccupied
+     */
+    Vehicle get(int row, int col);
+
+    /**
+     * Checks if a position is occupied by a Vehicle.
+     * @param row row of the position
+     * @param col column of the position
+     * @return boolean whether the position is occupied
+     */
+    boolean isOccupied(int row, int col);
+
+    /**
+     * Puts a Vehicle on a position if it is unoccupied.
+     * @param row row of the position
+     * @param col column of the position
+     * @param v Vehicle object
+     * @return boolean whether the Vehicle was put on the position
+     */
+    boolean place(int row, int col, Vehicle v);
+
+    /**
+     * Moves the Vehicle at a position to another one if it
+     * is unoccupied.
+     * @param fromRow row of the Vehicle
+     * @param fromCol column of the Vehicle
+     * @param toRow row to move to
+     * @param toCol column to move to
+     * @return boolean whether the Vehicle was moved
+     */
+    boolean move(int fromRow, int fromCol, int toRow, int toCol);
+
+    /**
+     * Takes the Vehicle at a position off the grid.
+     * @param row row of the position
+     * @param col column of the position
+     */
+    void remove(int row, int col);
+
+    /**
+     * Releases the memory held by the storage. It can't
+     * be used afterwards.
+     */
+    void close();
+}
@@ -0,0 +1,12 @@
+/**
+ * Enum class that contains where a GridSimulator
+ * keeps the vehicles on its grid.
+ *
+ * @author Boyan Stoynov
+ */
+public enum GridStorageMode {
+    /* A 2d array of Vehicles on the Java heap */
+    Heap,
+    /* A segment of native memory holding a handle per position */
+    OffHeap
+}
@@ -0,0 +1,244 @@
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A class that runs on its own thread and periodically checks the
+ * wait-for graph of a grid, in which every blocked Vehicle points to
+ * the Vehicle occupying its next position. Since each Vehicle waits
+ * for at most one other, the graph is walked in time linear to the
+ * number of blocked vehicles. Cycles (gridlocks) and long chains of
+ * waiting vehicles that have been stalled for long enough are
+ * reported to the standard output stream along with the region of
+ * the grid they cover. Each stall is reported once, for as long as
+ * its longest waiting Vehicle stays blocked. Depending on the
+ * GridlockPolicy, the longest waiting Vehicle of a cycle may be
+ * taken off the grid so that traffic recovers.
+ *
+ * @author Boyan Stoynov
+ */
+public class GridlockMonitor extends Thread {
+    /* Grid that is monitored */
+    private final GridSimulator grid;
+    /* Lock of the grid */
+    private final ReentrantLock lock;
+    /* Vehicles of the grid that are blocked, guarded by the lock */
+    private final HashSet<Vehicle> blockedVehicles;
+    /* Milliseconds between each check */
+    private final int period;
+    /* Shortest chain of waiting vehicles reported */
+    private final int minChainLength;
+    /* Nano time a cycle or chain must be stalled for to be reported */
+    private final long minStall;
+    /* What to do with vehicles waiting in a cycle */
+    private final GridlockPolicy policy;
+    /* Number of cycles found so far */
+    private volatile long cyclesDetected;
+    /* Clock the stalls are timed with, the same as the grid's */
+    private final SimulationClock clock;
+    /* Longest waiting vehicle of each cycle reported, with the
+     * nano time it got blocked, dropped once the cycle is gone */
+    private IdentityHashMap<Vehicle, Long> reportedCycles;
+    /* Longest waiting vehicle of each chain reported, with the
+     * nano time it got blocked, dropped once the chain is gone */
+    private IdentityHashMap<Vehicle, Long> reportedChains;
+
+    /**
+     * Creates a GridlockMonitor daemon thread.
+     * @param grid GridSimulator object
+     * @param lock the grid's lock
+     * @param blockedVehicles the grid's blocked vehicles
+     * @param period milliseconds between each check
+     * @param minChainLength shortest chain of waiting vehicles reported
+     * @param minStall milliseconds a cycle or chain must be stalled for to be reported
+     * @param policy what to do with vehicles waiting in a cycle
+     */
+    public GridlockMonitor(GridSimulator grid, ReentrantLock lock, HashSet<Vehicle> blockedVehicles, int period,
+                           int minChainLength, int minStall, GridlockPolicy policy) {
+        super("Gridlock monitor");
+        setDaemon(true);
+        this.grid = grid;
+        this.lock = lock;
+        this.blockedVehicles = blockedVehicles;
+        this.period = period;
+        this.minChainLength = minChainLength;
+        this.minStall = minStall * 1000000L;
+        this.policy = policy;
+        clock = SimulationConfig.getClock();
+        reportedCycles = new IdentityHashMap<>();
+        reportedChains = new IdentityHashMap<>();
+    }
+
+    /**
+     * Starts the thread. Checks the wait-for graph holding the
+     * grid's lock and prints any reports after releasing it.
+     */
+    @Override
+    public void run() {
+        for (;;) {
+            try {
+                clock.sleep(period);
+            } catch (InterruptedException e) {
+                return;
+            }
+
+            ArrayList<String> reports = new ArrayList<>();
+            lock.lock();
+            try {
+                checkWaitForGraph(reports);
+            } finally {
+                lock.unlock();
+            }
+
+            for (String report : reports) {
+                System.out.println(report);
+            }
+        }
+    }
+
+    /**
+     * Finds the cycles and long chains of the wait-for graph.
+     * @param reports list to add the reports to
+     */
+    private void checkWaitForGraph(List<String> reports) {
+        long now = clock.nanoTime();
+        // Walk in which each vehicle was first visited
+        IdentityHashMap<Vehicle, Integer> walks = new IdentityHashMap<>();
+        // Vehicles that others are waiting for
+        IdentityHashMap<Vehicle, Boolean> blockers = new IdentityHashMap<>();
+        ArrayList<List<Vehicle>> cycles = new ArrayList<>();
+
+        int walk = 0;
+        for (Vehicle start : blockedVehicles) {
+            if (start.getBlockedBy() != null)
+                blockers.put(start.getBlockedBy(), Boolean.TRUE);
+            if (walks.containsKey(start))
+                continue;
+
+            // Follows the vehicles waited for until reaching a visited one or the end
+            walk++;
+            ArrayList<Vehicle> path = new ArrayList<>();
+            Vehicle v = start;
+            while (v != null && !walks.containsKey(v)) {
+                walks.put(v, walk);
+                path.add(v);
+                v = v.getBlockedBy();
+            }
+
+            // Reaching a vehicle of the same walk closes a cycle
+            if (v != null && walks.get(v) == walk)
+                cycles.add(path.subList(path.indexOf(v), path.size()));
+        }
+
+        IdentityHashMap<Vehicle, Long> stalledCycles = new IdentityHashMap<>();
+        for (List<Vehicle> cycle : cycles) {
+            if (now - getStallStart(cycle) < minStall || isReported(cycle, reportedCycles, stalledCycles))
+                continue;
+
+            cyclesDetected++;
+            reports.add(describe("Gridlock: cycle of", cycle, now));
+            if (policy == GridlockPolicy.Evict)
+                grid.evictVehicle(getLongestWaiting(cycle));
+        }
+        reportedCycles = stalledCycles;
+
+        // Chains start at blocked vehicles nobody waits for
+        IdentityHashMap<Vehicle, Long> stalledChains = new IdentityHashMap<>();
+        for (Vehicle tail : blockedVehicles) {
+            if (blockers.containsKey(tail))
+                continue;
+
+            // Follows the chain until its head or until it runs into a cycle
+            ArrayList<Vehicle> chain = new ArrayList<>();
+            IdentityHashMap<Vehicle, Boolean> inChain = new IdentityHashMap<>();
+            for (Vehicle v = tail; v != null && v.getBlockedBy() != null && !inChain.containsKey(v); v = v.getBlockedBy()) {
+                chain.add(v);
+                inChain.put(v, Boolean.TRUE);
+            }
+            if (chain.size() >= minChainLength && now - getStallStart(chain) >= minStall
+                    && !isReported(chain, reportedChains, stalledChains))
+                reports.add(describe("Standstill: chain of", chain, now));
+        }
+        reportedChains = stalledChains;
+    }
+
+    /**
+     * Checks if a stalled group of waiting vehicles has been reported
+     * before, i.e. its longest waiting Vehicle has stayed blocked since,
+     * and keeps it among those still stalled either way.
+     * @param vehicles waiting vehicles
+     * @param reported groups reported in earlier checks
+     * @param stalled groups found stalled in this check
+     * @return boolean whether the group has been reported
+     */
+    private boolean isReported(List<Vehicle> vehicles, IdentityHashMap<Vehicle, Long> reported,
+                               IdentityHashMap<Vehicle, Long> stalled) {
+        Vehicle longest = getLongestWaiting(vehicles);
+        Long since = longest.getBlockedSince();
+        stalled.put(longest, since);
+        return since.equals(reported.get(longest));
+    }
+
+    /**
+     * Returns the longest waiting vehicle of a group.
+     * @param vehicles waiting vehicles
+     * @return Vehicle that got blocked first
+     */
+    private Vehicle getLongestWaiting(List<Vehicle> vehicles) {
+        Vehicle longest = vehicles.get(0);
+        for (Vehicle v : vehicles) {
+            if (v.getBlockedSince() < longest.getBlockedSince())
+                longest = v;
+        }
+        return longest;
+    }
+
+    /**
+     * Returns the nano time at which the longest waiting
+     * vehicle of a group got blocked.
+     * @param vehicles waiting vehicles
+     * @return long nano time
+     */
+    private long getStallStart(List<Vehicle> vehicles) {
+        long start = Long.MAX_VALUE;
+        for (Vehicle v : vehicles) {
+            start = Math.min(start, v.getBlockedSince());
+        }
+        return start;
+    }
+
+    /**
+     * Describes the size, region and stall duration of a
+     * group of waiting vehicles.
+     * @param kind kind of the group
+     * @param vehicles waiting vehicles
+     * @param now current nano time
+     * @return String description
+     */
+    private String describe(String kind, List<Vehicle> vehicles, long now) {
+        int minRow = Integer.MAX_VALUE;
+        int maxRow = Integer.MIN_VALUE;
+        int minCol = Integer.MAX_VALUE;
+        int maxCol = Integer.MIN_VALUE;
+        for (Vehicle v : vehicles) {
+            Position pos = v.getPosition();
+            minRow = Math.min(minRow, pos.getHorzPosition());
+            maxRow = Math.max(maxRow, pos.getHorzPosition());
+            minCol = Math.min(minCol, pos.getVertPosition());
+            maxCol = Math.max(maxCol, pos.getVertPosition());
+        }
+
+        return String.format("%s %d vehicles in rows %d-%d, columns %d-%d, stalled for %.2fs",
+                kind, vehicles.size(), minRow, maxRow, minCol, maxCol, (now - getStallStart(vehicles)) / 1e9);
+    }
+
+    /**
+     * Returns the number of cycles found so far.
+     * @return long number of cycles
+     */
+    public long getCyclesDetected() {
+        return cyclesDetected;
+    }
+}
@@ -0,0 +1,12 @@
+/**
+ * Enum class that contains what a GridlockMonitor
+ * can do about vehicles waiting for each other in a cycle.
+ *
+ * @author Boyan Stoynov
+ */
+public enum GridlockPolicy {
+    /* Only report the gridlock */
+    Report,
+    /* Take the longest waiting vehicle of the cycle off the grid */
+    Evict
+}
@@ -0,0 +1,63 @@
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+
+/**
+ * A GridStorage that keeps a reference to the Vehicle on each
+ * position in a 2d array on the Java heap. It suits grids of up to
+ * a few million positions, above which the garbage collector spends
+ * a growing share of its time scanning the array.
+ *
+ * @author Boyan Stoynov
+ */
+public class HeapGridStorage implements GridStorage {
+    /* VarHandle for atomic updates of the elements of a row */
+    private static final VarHandle CELL = MethodHandles.arrayElementVarHandle(Vehicle[].class);
+
+    /* Vehicle on each position, null if unoccupied */
+    private final Vehicle[][] cells;
+
+    /**
+     * Creates an empty HeapGridStorage object.
+     * @param rows number of rows
+     * @param columns number of columns
+     */
+    public HeapGridStorage(int rows, int columns) {
+        cells = new Vehicle[rows][columns];
+    }
+
+    public int getRows() {
+        return cells.length;
+    }
+
+    public int getColumns() {
+        return cells[0].length;
+    }
+
+    public Vehicle get(int row, int col) {
+        return (Vehicle) CELL.getAcquire(cells[row], col);
+    }
+
+    public boolean isOccupied(int row, int col) {
+        return CELL.getAcquire(cells[row], col) != null;
+    }
+
+    public boolean place(int row, int col, Vehicle v) {
+        return CELL.compareAndSet(cells[row], col, null, v);
+    }
+
+    public boolean move(int fromRow, int fromCol, int toRow, int toCol) {
+        if (!CELL.compareAndSet(cells[toRow], toCol, null, cells[fromRow][fromCol]))
+            return false;
+
+        CELL.setRelease(cells[fromRow], fromCol, null);
+        return true;
+    }
+
+    public void remove(int row, int col) {
+        CELL.setRelease(cells[row], col, null);
+    }
+
+    public void close() {
+        // The array is reclaimed by the garbage collector
+    }
+}
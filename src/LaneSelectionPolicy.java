@@ -0,0 +1,14 @@
+/**
+ * Enum class that contains the ways a grid can choose
+ * the lane a newly generated vehicle is put on.
+ *
+ * @author Boyan Stoynov
+ */
+public enum LaneSelectionPolicy {
+    /* Every lane of the generator is equally likely */
+    Random,
+    /* Lanes shared with other generators are less likely */
+    Weighted,
+    /* The lane with the fewest vehicles and a free entry is chosen */
+    LeastOccupied
+}
@@ -0,0 +1,82 @@
+import java.util.Random;
+
+/**
+ * Immutable class holding the lanes a generator can put traffic
+ * on along one axis of the grid, together with the weight of each
+ * lane. Weights are stored cumulatively so that a weighted lane can
+ * be picked with a binary search. A set may be empty, in which
+ * case no lane can be picked from it.
+ *
+ * @author Boyan Stoynov
+ */
+public class LaneSet {
+    /* Indices of the lanes */
+    private final int[] lanes;
+    /* Cumulative weights of the lanes */
+    private final double[] cumulativeWeights;
+
+    /**
+     * Creates a LaneSet object.
+     * @param lanes indices of the lanes
+     * @param weights weight of each lane
+     */
+    public LaneSet(int[] lanes, double[] weights) {
+        this.lanes = lanes;
+        cumulativeWeights = new double[weights.length];
+        double total = 0.0;
+        for (int i = 0; i < weights.length; i++) {
+            total += weights[i];
+            cumulativeWeights[i] = total;
+        }
+    }
+
+    public int size() {
+        return lanes.length;
+    }
+
+    /**
+     * Returns the lane at the given index of the set.
+     * @param i index in the set
+     * @return int lane
+     */
+    public int get(int i) {
+        return lanes[i];
+    }
+
+    /**
+     * Picks a lane with every lane equally likely.
+     * @param random Random object
+     * @return int lane, -1 if the set is empty
+     */
+    public int pickRandom(Random random) {
+        if (lanes.length == 0)
+            return -1;
+
+        return lanes[random.nextInt(lanes.length)];
+    }
+
+    /**
+     * Picks a lane with the probability of each lane
+     * proportional to its weight.
+     * @param random Random object
+     * @return int lane, -1 if the set is empty
+     */
+    public int pickWeighted(Random random) {
+        if (lanes.length == 0)
+            return -1;
+
+        double target = random.nextDouble() * cumulativeWeights[cumulativeWeights.length - 1];
+
+        // Finds the first lane whose cumulative weight exceeds the target
+        int low = 0;
+        int high = cumulativeWeights.length - 1;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (cumulativeWeights[mid] > target)
+                high = mid;
+            else
+                low = mid + 1;
+        }
+        return lanes[low];
+    }
+}
@@ -0,0 +1,186 @@
+/**
+ * Class holding precomputed routes through a grid of one-way lanes.
+ * Every row and every column is a possible destination, reached by
+ * leaving the grid at the end of that lane. A route to a row first
+ * heads for the nearest column that leads towards the row, drives
+ * along it until it reaches the row and then follows the row to its
+ * exit; routes to columns are the same with rows and columns swapped.
+ * If no column towards the row lies ahead, the route drives away from
+ * the row to the nearest row of the opposite direction and comes back
+ * from there, which reaches every destination that can be reached at
+ * all. Routes don't depend on the destination beyond which side of it
+ * a cell lies, so the table only stores, for each lane, the nearest
+ * crossing ahead with a lane of each direction, in arrays as long as
+ * the number of rows or columns. Looking up the next hop of a move
+ * costs a few array reads however large the grid is. A table is
+ * immutable; reversing lanes builds a new one for the new directions.
+ *
+ * @author Boyan Stoynov
+ */
+public class NextHopTable {
+    /* The destination cannot be reached from the cell */
+    public static final byte UNREACHABLE = 0;
+    /* Continue along the cell's row */
+    public static final byte ROW = 1;
+    /* Continue along the cell's column */
+    public static final byte COLUMN = 2;
+    /* The cell is the exit of the destination */
+    public static final byte EXIT = 3;
+
+    /* Number of grid rows */
+    private final int rows;
+    /* Number of grid columns */
+    private final int columns;
+    /* Direction of travel of each row, copied from the grid */
+    private final Direction[] horizontalDirections;
+    /* Direction of travel of each column, copied from the grid */
+    private final Direction[] verticalDirections;
+    /* Nearest column at or ahead of each column along a row, indexed by
+     * the direction of the row and the direction of the column looked
+     * for, -1 if there is none */
+    private final int[][][] aheadColumns;
+    /* Nearest row at or ahead of each row along a column, indexed by
+     * the direction of the column and the direction of the row looked
+     * for, -1 if there is none */
+    private final int[][][] aheadRows;
+
+    /**
+     * Creates a NextHopTable object for the given lane directions.
+     * The direction arrays are copied, so the table keeps describing
+     * them when the grid reverses lanes. Runs in time linear to the
+     * number of lanes.
+     * @param horizontalDirections direction of travel of each row
+     * @param verticalDirections direction of travel of each column
+     */
+    public NextHopTable(Direction[] horizontalDirections, Direction[] verticalDirections) {
+        this.horizontalDirections = horizontalDirections.clone();
+        this.verticalDirections = verticalDirections.clone();
+        rows = horizontalDirections.length;
+        columns = verticalDirections.length;
+
+        aheadColumns = new int[2][2][];
+        aheadRows = new int[2][2][];
+        for (int lane = 0; lane < 2; lane++) {
+            for (int target = 0; target < 2; target++) {
+                // Westbound rows and southbound columns go up the indices
+                aheadColumns[lane][target] = findAhead(this.verticalDirections,
+                        target == 0 ? Direction.South : Direction.North, lane == 0);
+                aheadRows[lane][target] = findAhead(this.horizontalDirections,
+                        target == 0 ? Direction.West : Direction.East, lane == 0);
+            }
+        }
+    }
+
+    /**
+     * Finds, for every lane, the nearest lane at or ahead of it
+     * that has the given direction.
+     * @param directions direction of each lane
+     * @param target direction looked for
+     * @param increasing whether ahead means a higher index
+     * @return int[] nearest lane ahead of each lane, -1 if there is none
+     */
+    private static int[] findAhead(Direction[] directions, Direction target, boolean increasing) {
+        int[] ahead = new int[directions.length];
+        int nearest = -1;
+        for (int i = 0; i < directions.length; i++) {
+            int lane = increasing ? directions.length - 1 - i : i;
+            if (directions[lane] == target)
+                nearest = lane;
+            ahead[lane] = nearest;
+        }
+        return ahead;
+    }
+
+    /**
+     * Returns the index a Direction is stored at in the tables:
+     * 0 for West and South, 1 for East and North.
+     * @param dir Direction object
+     * @return int 0 or 1
+     */
+    private static int index(Direction dir) {
+        return dir == Direction.West || dir == Direction.South ? 0 : 1;
+    }
+
+    /**
+     * Returns the number of destinations. Destinations below the
+     * number of rows are rows, the rest are columns.
+     * @return int number of destinations
+     */
+    public int getDestinationCount() {
+        return rows + columns;
+    }
+
+    /**
+     * Returns the next hop from a cell towards a destination.
+     * @param destination destination index
+     * @param row grid row
+     * @param col grid column
+     * @return byte UNREACHABLE, ROW, COLUMN or EXIT
+     */
+    public byte getNextHop(int destination, int row, int col) {
+        if (destination < rows)
+            return getHopToRow(destination, row, col);
+        else
+            return getHopToColumn(destination - rows, row, col);
+    }
+
+    /**
+     * Returns the next hop from a cell towards the exit of a row.
+     * @param target destination row
+     * @param row grid row
+     * @param col grid column
+     * @return byte UNREACHABLE, ROW, COLUMN or EXIT
+     */
+    private byte getHopToRow(int target, int row, int col) {
+        Direction rowDir = horizontalDirections[row];
+        if (row == target) {
+            int exitCol = rowDir == Direction.West ? columns - 1 : 0;
+            return col == exitCol ? EXIT : ROW;
+        }
+
+        // Columns leading towards the target row, and the ones ahead along this row
+        int toward = index(target > row ? Direction.South : Direction.North);
+        if (index(verticalDirections[col]) == toward)
+            return COLUMN;
+        if (aheadColumns[index(rowDir)][toward][col] >= 0)
+            return ROW;
+
+        /* Drives away along the column to a row of the opposite
+         * direction, from where a column towards the target lies ahead */
+        int away = index(verticalDirections[col]);
+        int opposite = 1 - index(rowDir);
+        if (aheadRows[away][opposite][row] >= 0 && aheadColumns[opposite][toward][col] >= 0)
+            return COLUMN;
+        return UNREACHABLE;
+    }
+
+    /**
+     * Returns the next hop from a cell towards the exit of a column.
+     * @param target destination column
+     * @param row grid row
+     * @param col grid column
+     * @return byte UNREACHABLE, ROW, COLUMN or EXIT
+     */
+    private byte getHopToColumn(int target, int row, int col) {
+        Direction colDir = verticalDirections[col];
+        if (col == target) {
+            int exitRow = colDir == Direction.South ? rows - 1 : 0;
+            return row == exitRow ? EXIT : COLUMN;
+        }
+
+        // Rows leading towards the target column, and the ones ahead along this column
+        int toward = index(target > col ? Direction.West : Direction.East);
+        if (index(horizontalDirections[row]) == toward)
+            return ROW;
+        if (aheadRows[index(colDir)][toward][row] >= 0)
+            return COLUMN;
+
+        /* Drives away along the row to a column of the opposite
+         * direction, from where a row towards the target lies ahead */
+        int away = index(horizontalDirections[row]);
+        int opposite = 1 - index(colDir);
+        if (aheadColumns[away][opposite][col] >= 0 && aheadRows[opposite][toward][row] >= 0)
+            return ROW;
+        return UNREACHABLE;
+    }
+}
@@ -0,0 +1,16 @@
+/**
+ * Enum class that contains what a subscription to grid
+ * events does when its buffer is full.
+ *
+ * @author Boyan Stoynov
+ */
+public enum OverflowPolicy {
+    /* Drop the oldest buffered event to make room */
+    DropOldest,
+    /* Keep only every n-th overflowing event, replacing the oldest */
+    Sample,
+    /* Stop taking events from the subscription's feed until the buffer
+     * has room, so they wait there. The grid never waits, so events
+     * that find the feed full are dropped. Other subscriptions never wait. */
+    Block
+}
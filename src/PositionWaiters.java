@@ -0,0 +1,172 @@
+/**
+ * Class that keeps track of the vehicles waiting for each position
+ * of a grid: how many wait for it, and the first of them with the
+ * Direction it moves in. Positions are keyed by their long index in
+ * an open-addressing hash table of parallel arrays, so no key or
+ * count is boxed and only positions someone waits for take up room.
+ * The class is not thread safe; the grid guards it with its lock.
+ *
+ * @author Boyan Stoynov
+ */
+public class PositionWaiters {
+    /* Initial number of slots, a power of two */
+    private static final int INITIAL_CAPACITY = 64;
+
+    /* Position index of each slot */
+    private long[] keys;
+    /* First vehicle waiting for the position of each slot, null if it has stopped */
+    private Vehicle[] vehicles;
+    /* Direction the first vehicle moves in */
+    private Direction[] directions;
+    /* Number of vehicles waiting for the position of each slot, 0 if the slot is free */
+    private int[] counts;
+    /* Number of slots in use */
+    private int size;
+
+    /**
+     * Creates an empty PositionWaiters object.
+     */
+    public PositionWaiters() {
+        keys = new long[INITIAL_CAPACITY];
+        vehicles = new Vehicle[INITIAL_CAPACITY];
+        directions = new Direction[INITIAL_CAPACITY];
+        counts = new int[INITIAL_CAPACITY];
+    }
+
+    /**
+     * Counts a Vehicle waiting for a position. The Vehicle is
+     * recorded if no other recorded one waits for the position.
+     * @param index position index
+     * @param v Vehicle object
+     * @param dir Direction the Vehicle moves in
+     */
+    public void add(long index, Vehicle v, Direction dir) {
+        if ((size + 1) * 2 > counts.length)
+            resize();
+
+        int slot = find(index);
+        if (counts[slot] == 0) {
+            keys[slot] = index;
+            size++;
+        }
+        counts[slot]++;
+        if (vehicles[slot] == null) {
+            vehicles[slot] = v;
+            directions[slot] = dir;
+        }
+    }
+
+    /**
+     * Stops counting a Vehicle waiting for a position.
+     * @param index position index
+     * @param v Vehicle object
+     */
+    public void remove(long index, Vehicle v) {
+        int slot = find(index);
+        if (counts[slot] == 0)
+            return;
+
+        if (vehicles[slot] == v) {
+            vehicles[slot] = null;
+            directions[slot] = null;
+        }
+        if (--counts[slot] == 0)
+            removeSlot(slot);
+    }
+
+    /**
+     * Returns the Vehicle waiting for a position if it is the
+     * only one waiting for it.
+     * @param index position index
+     * @return Vehicle object, null if none or several vehicles wait
+     */
+    public Vehicle getSoleWaiter(long index) {
+        int slot = find(index);
+        return counts[slot] == 1 ? vehicles[slot] : null;
+    }
+
+    /**
+     * Returns the Direction the recorded Vehicle waiting
+     * for a position moves in.
+     * @param index position index
+     * @return Direction object, null if no Vehicle is recorded
+     */
+    public Direction getDirection(long index) {
+        return directions[find(index)];
+    }
+
+    /**
+     * Returns the slot of a position index, or the free slot
+     * it would take.
+     * @param index position index
+     * @return int slot
+     */
+    private int find(long index) {
+        int mask = counts.length - 1;
+        int slot = hash(index, mask);
+        while (counts[slot] != 0 && keys[slot] != index) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    /**
+     * Returns the preferred slot of a position index.
+     * @param index position index
+     * @param mask number of slots minus one
+     * @return int slot
+     */
+    private static int hash(long index, int mask) {
+        long h = index * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32)) & mask;
+    }
+
+    /**
+     * Frees a slot, moving back any later entries that would
+     * otherwise no longer be found.
+     * @param slot slot to free
+     */
+    private void removeSlot(int slot) {
+        int mask = counts.length - 1;
+        int gap = slot;
+        for (int i = (slot + 1) & mask; counts[i] != 0; i = (i + 1) & mask) {
+            // An entry can fill the gap if its preferred slot doesn't lie between them
+            int home = hash(keys[i], mask);
+            if (((i - home) & mask) >= ((i - gap) & mask)) {
+                keys[gap] = keys[i];
+                vehicles[gap] = vehicles[i];
+                directions[gap] = directions[i];
+                counts[gap] = counts[i];
+                gap = i;
+            }
+        }
+        vehicles[gap] = null;
+        directions[gap] = null;
+        counts[gap] = 0;
+        size--;
+    }
+
+    /**
+     * Doubles the number of slots.
+     */
+    private void resize() {
+        long[] oldKeys = keys;
+        Vehicle[] oldVehicles = vehicles;
+        Direction[] oldDirections = directions;
+        int[] oldCounts = counts;
+        keys = new long[oldCounts.length * 2];
+        vehicles = new Vehicle[oldCounts.length * 2];
+        directions = new Direction[oldCounts.length * 2];
+        counts = new int[oldCounts.length * 2];
+
+        for (int i = 0; i < oldCounts.length; i++) {
+            if (oldCounts[i] != 0) {
+                int slot = find(oldKeys[i]);
+                keys[slot] = oldKeys[i];
+                vehicles[slot] = oldVehicles[i];
+                directions[slot] = oldDirections[i];
+                counts[slot] = oldCounts[i];
+            }
+        }
+    }
+}
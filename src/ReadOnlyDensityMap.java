@@ -0,0 +1,48 @@
+/**
+ * ReadOnlyDensityMap is an interface that exposes only the
+ * block counts of a DensityMap, so a grid can hand its counts to a
+ * visualiser without letting it change them.
+ *
+ * @author Boyan Stoynov
+ */
+public interface ReadOnlyDensityMap {
+
+    /**
+     * Returns the number of block rows.
+     * @return int number of block rows
+     */
+    int getBlockRows();
+
+    /**
+     * Returns the number of block columns.
+     * @return int number of block columns
+     */
+    int getBlockColumns();
+
+    /**
+     * Returns the number of vehicles in a block.
+     * @param blockRow block row
+     * @param blockCol block column
+     * @return int number of vehicles
+     */
+    int getCount(int blockRow, int blockCol);
+
+    /**
+     * Returns the number of vehicles in a block travelling
+     * in the given Direction.
+     * @param blockRow block row
+     * @param blockCol block column
+     * @param dir Direction of travel
+     * @return int number of vehicles
+     */
+    int getCount(int blockRow, int blockCol, Direction dir);
+
+    /**
+     * Returns the number of grid cells in a block.
+     * @param blockRow block row
+     * @param blockCol block column
+     * @return int number of cells
+     */
+    int getBlockArea(int blockRow, int blockCol);
+
+}
@@ -15,4 +15,32 @@ public interface ReadOnlyGrid {
      */
     Vehicle[][] getTrafficGrid();
 
+    /**
+     * Returns the number of rows of the grid.
+     * @return int number of rows
+     */
+    int getRows();
+
+    /**
+     * Returns the number of columns of the grid.
+     * @return int number of columns
+     */
+    int getColumns();
+
+    /**
+     * Returns the Vehicle at a position of the grid without
+     * copying the grid.
+     * @param row row of the position
+     * @param col column of the position
+     * @return Vehicle at the position, null if it is unoccupied
+     */
+    Vehicle getVehicle(int row, int col);
+
+    /**
+     * Returns a read-only view of the DensityMap that counts
+     * the vehicles in each block of the grid.
+     * @return ReadOnlyDensityMap of the grid
+     */
+    ReadOnlyDensityMap getDensityMap();
+
 }
@@ -0,0 +1,14 @@
+/**
+ * Enum class that contains the ways the simulation
+ * can be drawn by the visualiser.
+ *
+ * @author Boyan Stoynov
+ */
+public enum RenderMode {
+    /* One character for every cell of the grid */
+    Cells,
+    /* One character for a block of cells, shaded by vehicle density */
+    Density,
+    /* One character for a block of cells, showing the dominant direction */
+    DominantDirection
+}
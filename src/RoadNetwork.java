@@ -0,0 +1,378 @@
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Random;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Class to model and simulate a road network of arbitrary shape
+ * as a graph of nodes joined by directed segments. Each segment is a
+ * number of cells long and each cell holds as many vehicles as the
+ * segment has lanes. The graph is stored in compressed sparse row
+ * form: the segments leaving node n are those from firstSegment[n]
+ * to firstSegment[n + 1], and all per-segment and per-cell data is
+ * kept in primitive arrays, so networks with millions of segments
+ * take tens of bytes per segment. The class implements the
+ * TrafficNetwork interface, so TrafficGenerators put Vehicles on it
+ * and Vehicles traverse it exactly as they do a GridSimulator. A
+ * Vehicle's Position holds its segment and the cell along it. Its
+ * Direction is not used. Vehicles enter at the start of entry segments,
+ * those leaving a node no segment leads to, pick a random segment at
+ * each node and leave the network at the end of a segment leading to
+ * a node with no way out.
+ *
+ * @author Boyan Stoynov
+ */
+public class RoadNetwork implements TrafficNetwork {
+    /* Number of nodes */
+    private final int nodeCount;
+    /* Index of the first segment leaving each node, plus one past the last */
+    private final int[] firstSegment;
+    /* Node each segment leads to */
+    private final int[] segmentTarget;
+    /* Number of cells along each segment */
+    private final int[] segmentLength;
+    /* Number of vehicles each cell of a segment can hold */
+    private final int[] segmentLanes;
+    /* Index of the first cell of each segment */
+    private final int[] segmentFirstCell;
+    /* Number of vehicles in each cell, guarded by the lock */
+    private final byte[] cellOccupancy;
+    /* Segments vehicles enter the network from */
+    private final int[] entrySegments;
+    /* Entry segments of each generator added to the network */
+    private final HashMap<TrafficGenerator, int[]> generatorEntries;
+    /* Random object to pick entries and turns */
+    private final Random random;
+    /* ReentrantLock to facilitate cars waiting for each other */
+    private final ReentrantLock vehicleLock;
+    /* Condition to check whether a cell has room */
+    private final Condition condition;
+    /* Clock the waits of vehicles are timed with */
+    private final SimulationClock clock;
+
+    /**
+     * Creates a RoadNetwork from a list of directed segments.
+     * Segments are reordered by the node they leave, so their
+     * indices in the network differ from those in the arrays given.
+     * @param nodeCount number of nodes
+     * @param from node each segment leaves
+     * @param to node each segment leads to
+     * @param length number of cells along each segment, at least 1
+     * @param lanes number of vehicles a cell of each segment holds, 1 to 127
+     * @throws IllegalArgumentException if a segment is out of these bounds
+     * or the segments have more cells in total than an array can hold
+     */
+    public RoadNetwork(int nodeCount, int[] from, int[] to, int[] length, int[] lanes) {
+        this.nodeCount = nodeCount;
+        int segments = from.length;
+        validateSegments(from, to, length, lanes);
+
+        // Counts the segments leaving each node and turns the counts into offsets
+        firstSegment = new int[nodeCount + 1];
+        for (int node : from) {
+            firstSegment[node + 1]++;
+        }
+        for (int node = 0; node < nodeCount; node++) {
+            firstSegment[node + 1] += firstSegment[node];
+        }
+
+        // Places every segment after the ones already placed for its node
+        segmentTarget = new int[segments];
+        segmentLength = new int[segments];
+        segmentLanes = new int[segments];
+        int[] placed = new int[nodeCount];
+        for (int i = 0; i < segments; i++) {
+            int seg = firstSegment[from[i]] + placed[from[i]]++;
+            segmentTarget[seg] = to[i];
+            segmentLength[seg] = length[i];
+            segmentLanes[seg] = lanes[i];
+        }
+
+        segmentFirstCell = new int[segments];
+        long cells = 0;
+        for (int seg = 0; seg < segments; seg++) {
+            segmentFirstCell[seg] = (int) cells;
+            cells += segmentLength[seg];
+            if (cells > Integer.MAX_VALUE)
+                throw new IllegalArgumentException("Segments up to " + seg + " hold " + cells
+                        + " cells, at most " + Integer.MAX_VALUE + " expected");
+        }
+        cellOccupancy = new byte[(int) cells];
+
+        entrySegments = findEntrySegments();
+        generatorEntries = new HashMap<>();
+        random = new Random();
+        vehicleLock = new ReentrantLock();
+        condition = vehicleLock.newCondition();
+        clock = SimulationConfig.getClock();
+    }
+
+    /**
+     * Checks that every segment joins existing nodes, is at
+     * least one cell long and has 1 to 127 lanes, as the
+     * occupancy of a cell is kept in a byte.
+     * @param from node each segment leaves
+     * @param to node each segment leads to
+     * @param length number of cells along each segment
+     * @param lanes number of vehicles a cell of each segment holds
+     * @throws IllegalArgumentException if a segment is out of bounds
+     */
+    private void validateSegments(int[] from, int[] to, int[] length, int[] lanes) {
+        if (to.length != from.length || length.length != from.length || lanes.length != from.length)
+            throw new IllegalArgumentException("Segment arrays differ in length");
+
+        for (int i = 0; i < from.length; i++) {
+            if (from[i] < 0 || from[i] >= nodeCount || to[i] < 0 || to[i] >= nodeCount)
+                throw new IllegalArgumentException("Segment " + i + " joins nodes " + from[i] + " and " + to[i]
+                        + ", outside 0 to " + (nodeCount - 1));
+            if (length[i] < 1)
+                throw new IllegalArgumentException("Segment " + i + " is " + length[i] + " cells long, at least 1 expected");
+            if (lanes[i] < 1 || lanes[i] > Byte.MAX_VALUE)
+                throw new IllegalArgumentException("Segment " + i + " has " + lanes[i] + " lanes, 1 to "
+                        + Byte.MAX_VALUE + " expected");
+        }
+    }
+
+    /**
+     * Loads a RoadNetwork from a text file. The first line holds
+     * the number of nodes and every following line a segment as
+     * "from to length lanes", separated by whitespace.
+     * @param fileName name of the file
+     * @return RoadNetwork the loaded network
+     * @throws IOException if the file cannot be read or a line is malformed
+     * @throws IllegalArgumentException if a segment is out of bounds
+     */
+    public static RoadNetwork load(String fileName) throws IOException {
+        try (BufferedReader reader = new BufferedReader(new FileReader(fileName))) {
+            String line = reader.readLine();
+            if (line == null)
+                throw new IOException(fileName + " is empty, the number of nodes expected on line 1");
+            int nodeCount = parseValue(line.trim(), 1, fileName);
+
+            // Grows the arrays as segments are read
+            int count = 0;
+            int[][] columns = new int[4][1024];
+            int lineNumber = 1;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                line = line.trim();
+                if (line.isEmpty())
+                    continue;
+
+                String[] values = line.split("\\s+");
+                if (values.length != 4)
+                    throw new IOException("Line " + lineNumber + " of " + fileName
+                            + " should hold 4 values: from to length lanes");
+                if (count == columns[0].length) {
+                    for (int i = 0; i < 4; i++) {
+                        columns[i] = Arrays.copyOf(columns[i], count * 2);
+                    }
+                }
+                for (int i = 0; i < 4; i++) {
+                    columns[i][count] = parseValue(values[i], lineNumber, fileName);
+                }
+                count++;
+            }
+
+            return new RoadNetwork(nodeCount, Arrays.copyOf(columns[0], count),
+                    Arrays.copyOf(columns[1], count), Arrays.copyOf(columns[2], count),
+                    Arrays.copyOf(columns[3], count));
+        }
+    }
+
+    /**
+     * Parses a whole number read from a line of a network file.
+     * @param value text of the number
+     * @param lineNumber line the number was read from
+     * @param fileName name of the file
+     * @return int the number
+     * @throws IOException if the text is not a whole number
+     */
+    private static int parseValue(String value, int lineNumber, String fileName) throws IOException {
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw new IOException("Line " + lineNumber + " of " + fileName + " holds \"" + value
+                    + "\", a whole number expected", e);
+        }
+    }
+
+    /**
+     * Finds the segments leaving nodes that no segment leads to.
+     * If every node can be reached, all segments are entries.
+     * @return int[] entry segments
+     */
+    private int[] findEntrySegments() {
+        boolean[] reached = new boolean[nodeCount];
+        for (int target : segmentTarget) {
+            reached[target] = true;
+        }
+
+        int count = 0;
+        for (int node = 0; node < nodeCount; node++) {
+            if (!reached[node])
+                count += firstSegment[node + 1] - firstSegment[node];
+        }
+        if (count == 0)
+            count = segmentTarget.length;
+
+        int[] entries = new int[count];
+        int i = 0;
+        for (int node = 0; node < nodeCount; node++) {
+            if (!reached[node] || count == segmentTarget.length) {
+                for (int seg = firstSegment[node]; seg < firstSegment[node + 1]; seg++) {
+                    entries[i++] = seg;
+                }
+            }
+        }
+        return entries;
+    }
+
+    /**
+     * Adds a generator that puts traffic only on the given segments.
+     * Generators that are not added put traffic on every entry segment.
+     * @param generator TrafficGenerator object
+     * @param entries segments the generator puts traffic on
+     */
+    public synchronized void addGenerator(TrafficGenerator generator, int[] entries) {
+        generatorEntries.put(generator, entries.clone());
+    }
+
+    /**
+     * Returns the number of segments in the network.
+     * @return int number of segments
+     */
+    public int getSegmentCount() {
+        return segmentTarget.length;
+    }
+
+    /**
+     * Adds a Vehicle generated by a TrafficGenerator at the start of
+     * a random entry segment of the generator. If the entry picked is
+     * full, waits for a vehicle to move before picking again, unless
+     * the calling thread is interrupted, in which case the Vehicle
+     * is not added.
+     * @param vhc Vehicle object
+     * @param tg TrafficGenerator object
+     * @return boolean whether the Vehicle was added
+     */
+    public boolean addVehicleToGrid(Vehicle vhc, TrafficGenerator tg) {
+        int[] entries;
+        synchronized (this) {
+            entries = generatorEntries.getOrDefault(tg, entrySegments);
+        }
+
+        vehicleLock.lock();
+        try {
+            for (;;) {
+                int seg = entries[random.nextInt(entries.length)];
+                int cell = segmentFirstCell[seg];
+                if (cellOccupancy[cell] < segmentLanes[seg]) {
+                    cellOccupancy[cell]++;
+                    vhc.setPosition(new Position(seg, 0));
+                    return true;
+                }
+
+                // Room is only made when a vehicle moves or leaves
+                condition.await();
+            }
+        } catch (InterruptedException e) {
+            // Gives up as the generator has been stopped
+            Thread.currentThread().interrupt();
+            return false;
+        } finally {
+            vehicleLock.unlock();
+        }
+    }
+
+    /**
+     * Advances the Vehicle to the next cell of its segment or, at
+     * the end of it, to the first cell of a random segment leaving
+     * the next node, waiting until that cell has room.
+     * @param v Vehicle object
+     */
+    public void advancePosition(Vehicle v) {
+        long lockStart = clock.nanoTime();
+        vehicleLock.lock();
+        v.addLockWaitTime(clock.nanoTime() - lockStart);
+
+        Position currPos = v.getPosition();
+        Position nextPos = getNextPosition(currPos);
+        int currCell = segmentFirstCell[currPos.getHorzPosition()] + currPos.getVertPosition();
+        int nextCell = segmentFirstCell[nextPos.getHorzPosition()] + nextPos.getVertPosition();
+        int nextLanes = segmentLanes[nextPos.getHorzPosition()];
+
+        try {
+            if (cellOccupancy[nextCell] >= nextLanes) {
+                long blockedStart = clock.nanoTime();
+                while (cellOccupancy[nextCell] >= nextLanes) {
+                    condition.await();
+                }
+                v.addBlockedTime(clock.nanoTime() - blockedStart);
+            }
+
+            cellOccupancy[currCell]--;
+            cellOccupancy[nextCell]++;
+            v.setPosition(nextPos);
+            // Room has been made in the current cell
+            condition.signalAll();
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        } finally {
+            vehicleLock.unlock();
+        }
+    }
+
+    /**
+     * Gets the next Position along the network, picking a random
+     * segment at the end of the current one.
+     * @param pos Position object
+     * @return Position the next Position
+     */
+    private Position getNextPosition(Position pos) {
+        int seg = pos.getHorzPosition();
+        if (pos.getVertPosition() < segmentLength[seg] - 1)
+            return new Position(seg, pos.getVertPosition() + 1);
+
+        int node = segmentTarget[seg];
+        int outgoing = firstSegment[node + 1] - firstSegment[node];
+        return new Position(firstSegment[node] + random.nextInt(outgoing), 0);
+    }
+
+    /**
+     * Checks if a Vehicle can move further along the network.
+     * If false - the Vehicle is at the end of a segment leading
+     * to a node with no way out.
+     * @param v Vehicle object
+     * @return boolean whether the vehicle can move further
+     */
+    public boolean canMove(Vehicle v) {
+        Position pos = v.getPosition();
+        int seg = pos.getHorzPosition();
+        if (pos.getVertPosition() < segmentLength[seg] - 1)
+            return true;
+
+        int node = segmentTarget[seg];
+        return firstSegment[node + 1] > firstSegment[node];
+    }
+
+    /**
+     * Removes the Vehicle from the network. This should only be
+     * called after the Vehicle has reached its final position.
+     * @param v Vehicle object
+     */
+    public void removeVehicle(Vehicle v) {
+        Position pos = v.getPosition();
+        vehicleLock.lock();
+        try {
+            cellOccupancy[segmentFirstCell[pos.getHorzPosition()] + pos.getVertPosition()]--;
+            condition.signalAll();
+        } finally {
+            vehicleLock.unlock();
+        }
+    }
+}
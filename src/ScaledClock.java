@@ -0,0 +1,67 @@
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A SimulationClock whose time passes a fixed number of times
+ * faster than real time. A speed-up of 1 runs the simulation in real
+ * time, 10 makes every simulated second last a tenth of a real one.
+ * Waits are not rounded to whole milliseconds, so short delays stay
+ * accurate at high speed-ups.
+ *
+ * @author Boyan Stoynov
+ */
+public class ScaledClock implements SimulationClock {
+    /* Number of simulated nanoseconds in a real one */
+    private final double speedUp;
+    /* Real nano time at which the simulated time was 0 */
+    private final long origin;
+
+    /**
+     * Creates a ScaledClock object starting at simulated time 0.
+     * @param speedUp number of times faster than real time, must be positive
+     */
+    public ScaledClock(double speedUp) {
+        if (!(speedUp > 0))
+            throw new IllegalArgumentException("Speed-up " + speedUp + " must be positive");
+
+        this.speedUp = speedUp;
+        origin = System.nanoTime();
+    }
+
+    /**
+     * Returns the number of times faster than real time
+     * the clock's time passes.
+     * @return double speed-up factor
+     */
+    public double getSpeedUp() {
+        return speedUp;
+    }
+
+    /**
+     * Returns the simulated nanoseconds since the clock was created.
+     * @return long simulated time in nanoseconds
+     */
+    @Override
+    public long nanoTime() {
+        return (long) ((System.nanoTime() - origin) * speedUp);
+    }
+
+    /**
+     * Waits for the real time matching the given simulated time.
+     * @param millis simulated milliseconds to wait for
+     * @throws InterruptedException if interrupted while waiting
+     */
+    @Override
+    public void sleep(long millis) throws InterruptedException {
+        if (Thread.interrupted())
+            throw new InterruptedException();
+
+        long nanos = (long) (millis * 1000000.0 / speedUp);
+        long deadline = System.nanoTime() + nanos;
+        // Parking may return early, so waits until the deadline has passed
+        for (long remaining = nanos; remaining > 0; remaining = deadline - System.nanoTime()) {
+            LockSupport.parkNanos(this, remaining);
+            if (Thread.interrupted())
+                throw new InterruptedException();
+        }
+    }
+}
@@ -0,0 +1,198 @@
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A class that runs on its own thread and controls traffic signals
+ * for a grid. The crossings of the grid are split into square groups
+ * and each group shows green either to the rows or to the columns.
+ * Vehicles entering a group from outside wait on a red signal, while
+ * vehicles already inside always clear it. Every tick the controller
+ * follows a max-pressure policy: once the minimum green time is over,
+ * the phase switches when the red axis has more pressure (queued
+ * vehicles minus vehicles of that axis still inside the group) than
+ * the green one, or when the maximum green time is over and vehicles
+ * are queued on red. Vehicles waiting on red park on a Condition of
+ * their group and axis, which is only signalled when it turns green.
+ * All methods other than run must be called holding the grid's lock.
+ *
+ * @author Boyan Stoynov
+ */
+public class SignalController extends Thread {
+    /* Axis index of the rows */
+    public static final int HORIZONTAL = 0;
+    /* Axis index of the columns */
+    public static final int VERTICAL = 1;
+    /* Milliseconds between each phase decision */
+    private static final int TICK = 20;
+
+    /* Number of crossings along each side of a group */
+    private final int groupSize;
+    /* Number of group columns */
+    private final int groupColumns;
+    /* Minimum nano time a phase stays green */
+    private final long minGreen;
+    /* Maximum nano time a phase stays green while the other axis waits */
+    private final long maxGreen;
+    /* Lock of the grid shared with the vehicles */
+    private final ReentrantLock lock;
+    /* Axis that currently has green for each group */
+    private final int[] phases;
+    /* Nano time at which each group's phase turned green */
+    private final long[] phaseStarts;
+    /* Vehicles queued to enter, indexed by group and axis */
+    private final int[] queued;
+    /* Vehicles inside, indexed by group and axis */
+    private final int[] inside;
+    /* Conditions to wait for green, indexed by group and axis */
+    private final Condition[] greenConditions;
+    /* Clock the phases are timed with */
+    private final SimulationClock clock;
+
+    /**
+     * Creates a SignalController daemon thread. All groups start
+     * with green for the rows.
+     * @param gridRows number of grid rows
+     * @param gridColumns number of grid columns
+     * @param groupSize number of crossings along each side of a group
+     * @param minGreen minimum milliseconds a phase stays green
+     * @param maxGreen maximum milliseconds a phase stays green while the other axis waits
+     * @param lock the grid's lock
+     */
+    public SignalController(int gridRows, int gridColumns, int groupSize, int minGreen, int maxGreen,
+                            ReentrantLock lock) {
+        super("Signal controller");
+        setDaemon(true);
+        this.groupSize = groupSize;
+        this.minGreen = minGreen * 1000000L;
+        this.maxGreen = maxGreen * 1000000L;
+        this.lock = lock;
+        clock = SimulationConfig.getClock();
+
+        groupColumns = (gridColumns + groupSize - 1) / groupSize;
+        int groups = ((gridRows + groupSize - 1) / groupSize) * groupColumns;
+        phases = new int[groups];
+        phaseStarts = new long[groups];
+        queued = new int[groups * 2];
+        inside = new int[groups * 2];
+        greenConditions = new Condition[groups * 2];
+        for (int i = 0; i < greenConditions.length; i++) {
+            greenConditions[i] = lock.newCondition();
+        }
+    }
+
+    /**
+     * Returns the group a grid position belongs to.
+     * @param pos Position object
+     * @return int group index
+     */
+    public int getGroup(Position pos) {
+        return (pos.getHorzPosition() / groupSize) * groupColumns + pos.getVertPosition() / groupSize;
+    }
+
+    /**
+     * Counts a vehicle queued to enter a group.
+     * @param group group index
+     * @param axis HORIZONTAL or VERTICAL
+     */
+    public void vehicleQueued(int group, int axis) {
+        queued[group * 2 + axis]++;
+    }
+
+    /**
+     * Stops counting a vehicle queued to enter a group.
+     * @param group group index
+     * @param axis HORIZONTAL or VERTICAL
+     */
+    public void vehicleDequeued(int group, int axis) {
+        queued[group * 2 + axis]--;
+    }
+
+    /**
+     * Counts a vehicle that is now inside a group.
+     * @param group group index
+     * @param axis HORIZONTAL or VERTICAL
+     */
+    public void vehicleEntered(int group, int axis) {
+        inside[group * 2 + axis]++;
+    }
+
+    /**
+     * Stops counting a vehicle that is no longer inside a group.
+     * @param group group index
+     * @param axis HORIZONTAL or VERTICAL
+     */
+    public void vehicleLeft(int group, int axis) {
+        inside[group * 2 + axis]--;
+    }
+
+    /**
+     * Waits until a group shows green to the given axis.
+     * @param group group index
+     * @param axis HORIZONTAL or VERTICAL
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public void awaitGreen(int group, int axis) throws InterruptedException {
+        while (phases[group] != axis) {
+            greenConditions[group * 2 + axis].await();
+        }
+    }
+
+    /**
+     * Checks if a group shows green to the given axis.
+     * @param group group index
+     * @param axis HORIZONTAL or VERTICAL
+     * @return boolean whether the signal is green
+     */
+    public boolean isGreen(int group, int axis) {
+        return phases[group] == axis;
+    }
+
+    /**
+     * Starts the thread. Every tick decides the phase of
+     * each group while holding the grid's lock.
+     */
+    @Override
+    public void run() {
+        for (;;) {
+            try {
+                clock.sleep(TICK);
+            } catch (InterruptedException e) {
+                return;
+            }
+
+            lock.lock();
+            try {
+                long now = clock.nanoTime();
+                for (int group = 0; group < phases.length; group++) {
+                    updatePhase(group, now);
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Switches the phase of a group if the max-pressure policy
+     * says so and wakes up the vehicles waiting for the new green.
+     * @param group group index
+     * @param now current nano time
+     */
+    private void updatePhase(int group, long now) {
+        int green = phases[group];
+        int red = 1 - green;
+        long elapsed = now - phaseStarts[group];
+        if (elapsed < minGreen)
+            return;
+
+        int greenPressure = queued[group * 2 + green] - inside[group * 2 + green];
+        int redPressure = queued[group * 2 + red] - inside[group * 2 + red];
+        boolean starved = elapsed >= maxGreen && queued[group * 2 + red] > 0;
+
+        if (redPressure > greenPressure || starved) {
+            phases[group] = red;
+            phaseStarts[group] = now;
+            greenConditions[group * 2 + red].signalAll();
+        }
+    }
+}
@@ -0,0 +1,25 @@
+/**
+ * SimulationClock is an interface that should be implemented by
+ * a class that keeps the time of the simulation. Every delay and
+ * time measurement of the simulation goes through the clock set
+ * in the SimulationConfig class, so the simulation can run faster
+ * or slower than real time without changing any speed or frequency.
+ *
+ * @author Boyan Stoynov
+ */
+public interface SimulationClock {
+
+    /**
+     * Returns the current simulated time. Only the difference
+     * between two values is meaningful, as with System.nanoTime.
+     * @return long simulated time in nanoseconds
+     */
+    long nanoTime();
+
+    /**
+     * Waits for the given simulated time to pass.
+     * @param millis simulated milliseconds to wait for
+     * @throws InterruptedException if interrupted while waiting
+     */
+    void sleep(long millis) throws InterruptedException;
+}
@@ -23,6 +23,16 @@ public class SimulationConfig {
     private static int maximumSpeed = 80;
     /* Maximum vehicle speed. N.B - higher is slower */
     private static int minimumSpeed = 450;
+    /* How the visualiser draws the simulation */
+    private static RenderMode renderMode = RenderMode.Cells;
+    /* Number of terminal rows available to the visualiser */
+    private static int terminalRows = 40;
+    /* Number of terminal columns available to the visualiser */
+    private static int terminalColumns = 120;
+    /* Clock all delays and time measurements go through */
+    private static SimulationClock clock = new ScaledClock(1);
+    /* Where the grid keeps its vehicles */
+    private static GridStorageMode gridStorageMode = GridStorageMode.Heap;
 
     public static int getGridRows() {
         return gridRows;
@@ -88,4 +98,44 @@ public class SimulationConfig {
         SimulationConfig.minimumSpeed = minimumSpeed;
     }
 
+    public static RenderMode getRenderMode() {
+        return renderMode;
+    }
+
+    public static void setRenderMode(RenderMode renderMode) {
+        SimulationConfig.renderMode = renderMode;
+    }
+
+    public static int getTerminalRows() {
+        return terminalRows;
+    }
+
+    public static void setTerminalRows(int terminalRows) {
+        SimulationConfig.terminalRows = terminalRows;
+    }
+
+    public static int getTerminalColumns() {
+        return terminalColumns;
+    }
+
+    public static void setTerminalColumns(int terminalColumns) {
+        SimulationConfig.terminalColumns = terminalColumns;
+    }
+
+    public static SimulationClock getClock() {
+        return clock;
+    }
+
+    public static void setClock(SimulationClock clock) {
+        SimulationConfig.clock = clock;
+    }
+
+    public static GridStorageMode getGridStorageMode() {
+        return gridStorageMode;
+    }
+
+    public static void setGridStorageMode(GridStorageMode gridStorageMode) {
+        SimulationConfig.gridStorageMode = gridStorageMode;
+    }
+
 }
@@ -16,6 +16,14 @@ public class SimulationVisualiser extends Thread {
     private final char VERTICAL_VEHICLE;
     /* Char used to represent vehicle moving horizontally */
     private final char HORIZONTAL_VEHICLE;
+    /* How the simulation is drawn */
+    private final RenderMode RENDER_MODE;
+    /* Characters used to shade blocks from empty to full */
+    private static final String DENSITY_RAMP = " .:-=+*#%@";
+    /* FrameWriter that prints the frames on its own thread */
+    private final FrameWriter frameWriter;
+    /* Clock the refresh rate is timed with */
+    private final SimulationClock clock;
 
     /**
      * Creates the object and assigns the ReadOnlyGrid object
@@ -29,68 +37,209 @@ public class SimulationVisualiser extends Thread {
         REFRESH_RATE = SimulationConfig.getVisualisationRefreshRate();
         VERTICAL_VEHICLE = SimulationConfig.getVerticalVehicleSymbol();
         HORIZONTAL_VEHICLE = SimulationConfig.getHorizontalVehicleSymbol();
+        RENDER_MODE = SimulationConfig.getRenderMode();
+        frameWriter = new FrameWriter(System.out);
+        clock = SimulationConfig.getClock();
+    }
+
+    /**
+     * Returns the number of frames built by the visualiser.
+     * @return long frames produced
+     */
+    public long getFramesProduced() {
+        return frameWriter.getFramesProduced();
+    }
+
+    /**
+     * Returns the number of frames dropped because the output
+     * stream could not keep up.
+     * @return long frames dropped
+     */
+    public long getFramesDropped() {
+        return frameWriter.getFramesDropped();
+    }
+
+    /**
+     * Returns the number of frames written to the output stream.
+     * @return long frames written
+     */
+    public long getFramesWritten() {
+        return frameWriter.getFramesWritten();
     }
 
     /**
      * Starts the visualisation of the simulation.
-     * The visualisation is printed according to the
-     * desired refresh rate.
+     * The visualisation is built according to the
+     * desired refresh rate and printed by the FrameWriter.
      */
     @Override
     public void run() {
+        frameWriter.start();
         for (int i = 0; i < NUM_OF_DRAWS; i++) {
-            System.out.println("Frame: " + (i + 1));
-            this.visualiseSimulation();
+            this.visualiseSimulation(i + 1);
             try {
-                Thread.sleep(REFRESH_RATE);
+                clock.sleep(REFRESH_RATE);
             } catch (InterruptedException e) {
                 e.printStackTrace();
             }
         }
+        // Waits for the last frame to be printed
+        frameWriter.finish();
         // Terminates program after visualisation is over
         System.exit(0);
     }
 
     /**
-     * Prints the current state of the Grid to the standard
-     * output stream.
+     * Builds the current state of the Grid and hands it over
+     * to the FrameWriter.
+     * @param frame number of the frame
      */
-    private void visualiseSimulation() {
-    Vehicle[][] visGrid = grid.getTrafficGrid();
-    StringBuilder sb = new StringBuilder();
+    private void visualiseSimulation(int frame) {
+        FrameBuildEvent event = new FrameBuildEvent();
+        event.begin();
+        StringBuilder sb = new StringBuilder();
 
-    // Prints upper road bound
-    for (Vehicle v : visGrid[0]) {
-        sb.append("==");
+        sb.append("Frame: ").append(frame).append("\n");
+        if (RENDER_MODE == RenderMode.Cells)
+            appendCells(sb);
+        else
+            appendBlocks(sb);
+
+        event.end();
+        if (event.shouldCommit()) {
+            event.frame = frame;
+            event.characters = sb.length();
+            event.commit();
+        }
+        frameWriter.submit(sb.toString());
     }
-    sb.append("\n");
-
-    // Prints lanes along with any vehicles on them
-    for (Vehicle[] vRow : visGrid) {
-        sb.append("|");
-
-        for (Vehicle v : vRow) {
-            if (v != null) {
-                Direction dir = v.getDirection();
-                if (dir == Direction.West || dir == Direction.East)
-                    sb.append(HORIZONTAL_VEHICLE);
-                else if (dir == Direction.South || dir == Direction.North)
-                    sb.append(VERTICAL_VEHICLE);
-            }
-            else
-                sb.append(" ");
 
+    /**
+     * Appends every cell of the Grid to the frame.
+     * @param sb StringBuilder of the frame
+     */
+    private void appendCells(StringBuilder sb) {
+        int rows = grid.getRows();
+        int columns = grid.getColumns();
+
+        // Prints upper road bound
+        for (int col = 0; col < columns; col++) {
+            sb.append("==");
+        }
+        sb.append("\n");
+
+        /* Prints lanes along with any vehicles on them, reading
+         * each cell in place instead of copying the grid */
+        for (int row = 0; row < rows; row++) {
             sb.append("|");
+
+            for (int col = 0; col < columns; col++) {
+                Vehicle v = grid.getVehicle(row, col);
+                if (v != null) {
+                    Direction dir = v.getDirection();
+                    if (dir == Direction.West || dir == Direction.East)
+                        sb.append(HORIZONTAL_VEHICLE);
+                    else if (dir == Direction.South || dir == Direction.North)
+                        sb.append(VERTICAL_VEHICLE);
+                }
+                else
+                    sb.append(" ");
+
+                sb.append("|");
+            }
+
+            sb.append("\n");
+        }
+
+        // Prints lower road bound
+        for (int col = 0; col < columns; col++) {
+            sb.append("==");
         }
+    }
+
+    /**
+     * Appends one character for every block of the Grid's
+     * DensityMap to the frame. Only the block counters are read,
+     * so the cost does not depend on the size of the Grid.
+     * @param sb StringBuilder of the frame
+     */
+    private void appendBlocks(StringBuilder sb) {
+        ReadOnlyDensityMap densityMap = grid.getDensityMap();
+        int blockCols = densityMap.getBlockColumns();
 
+        // Prints upper road bound
+        for (int c = 0; c < blockCols + 2; c++) {
+            sb.append("=");
+        }
         sb.append("\n");
+
+        for (int r = 0; r < densityMap.getBlockRows(); r++) {
+            sb.append("|");
+            for (int c = 0; c < blockCols; c++) {
+                if (RENDER_MODE == RenderMode.Density)
+                    sb.append(getDensitySymbol(densityMap, r, c));
+                else
+                    sb.append(getDirectionSymbol(densityMap, r, c));
+            }
+            sb.append("|\n");
+        }
+
+        // Prints lower road bound
+        for (int c = 0; c < blockCols + 2; c++) {
+            sb.append("=");
+        }
     }
 
-    // Prints lower road bound
-    for (Vehicle v : visGrid[0]) {
-        sb.append("==");
+    /**
+     * Returns the character of the shading ramp matching the
+     * share of occupied cells in a block.
+     * @param densityMap ReadOnlyDensityMap of the grid
+     * @param r block row
+     * @param c block column
+     * @return char shading character
+     */
+    private char getDensitySymbol(ReadOnlyDensityMap densityMap, int r, int c) {
+        int count = densityMap.getCount(r, c);
+        if (count <= 0)
+            return DENSITY_RAMP.charAt(0);
+
+        /* Rounds the share of occupied cells up to a visible shade, so any
+         * occupied block gets at least the first one and a full block the last */
+        int area = densityMap.getBlockArea(r, c);
+        int shade = (count * (DENSITY_RAMP.length() - 1) + area - 1) / area;
+        return DENSITY_RAMP.charAt(Math.min(shade, DENSITY_RAMP.length() - 1));
     }
 
-    System.out.println(sb.toString());
+    /**
+     * Returns the arrow of the Direction most vehicles in a
+     * block are travelling in. West and South are drawn as they
+     * move on the screen, to the right and downwards.
+     * @param densityMap ReadOnlyDensityMap of the grid
+     * @param r block row
+     * @param c block column
+     * @return char direction character
+     */
+    private char getDirectionSymbol(ReadOnlyDensityMap densityMap, int r, int c) {
+        Direction dominant = null;
+        int dominantCount = 0;
+
+        for (Direction dir : Direction.values()) {
+            int count = densityMap.getCount(r, c, dir);
+            if (count > dominantCount) {
+                dominant = dir;
+                dominantCount = count;
+            }
+        }
+
+        if (dominant == Direction.West)
+            return '>';
+        else if (dominant == Direction.East)
+            return '<';
+        else if (dominant == Direction.South)
+            return 'v';
+        else if (dominant == Direction.North)
+            return '^';
+        else
+            return ' ';
     }
 }
@@ -1,5 +1,9 @@
-import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * A class that collects time of existence of Vehicle threads
@@ -7,24 +11,118 @@ import java.util.Collections;
  * measures and produce a report to the standard output. There is no
  * need to explicitly call the run method of this class. It gets
  * triggered automatically upon program termination..
+ * Live statistics over the last 1, 10 and 60 seconds can further be
+ * reported periodically to a StatisticsSink while the simulation runs.
+ * Logging a vehicle time never takes a lock or waits for the
+ * reporter. When vehicles log their whole
+ * trip, the time spent sleeping, waiting for the grid's lock and
+ * blocked behind other vehicles is also reported.
  *
  * @author Boyan Stoynov
  */
 public class StatisticsCollector extends Thread {
+    /* Lengths of the windows reported live, in seconds */
+    private static final int[] WINDOWS = {1, 10, 60};
+    /* Number of one-second histograms kept in the ring buffer */
+    private static final int RING_SIZE = 60;
+    /* Second of a histogram of the ring buffer that is being cleared */
+    private static final long RESETTING = Long.MIN_VALUE;
+    /* Offset of the travel times before the first one is logged */
+    private static final long NO_OFFSET = Long.MIN_VALUE;
+
     /* Generator name */
     private final String name;
-    /* Travel time for each vehicle */
-    private final ArrayList<Long> times;
+    /* Number of vehicles logged */
+    private final LongAdder count;
+    /* First travel time logged, which all travel times are summed
+     * relative to, so the sums stay small and the variance precise */
+    private final AtomicLong offset;
+    /* Sum of the travel times relative to the offset */
+    private final LongAdder offsetSum;
+    /* Sum of the squares of the travel times relative to the offset */
+    private final DoubleAdder offsetSumOfSquares;
+    /* Minimum travel time */
+    private final LongAccumulator minTime;
+    /* Maximum travel time */
+    private final LongAccumulator maxTime;
+    /* Ring buffer of histograms, one for each second */
+    private final TravelTimeHistogram[] secondHistograms;
+    /* The second each histogram of the ring buffer belongs to, RESETTING while it is cleared */
+    private final AtomicLongArray histogramSeconds;
+    /* Number of loggers recording into each histogram of the ring buffer */
+    private final AtomicLongArray histogramWriters;
+    /* Travel times of all vehicles */
+    private final TravelTimeHistogram travelHistogram;
+    /* Time vehicles spent sleeping to simulate their speed */
+    private final TravelTimeHistogram sleepHistogram;
+    /* Time vehicles spent waiting to acquire the grid's lock */
+    private final TravelTimeHistogram lockWaitHistogram;
+    /* Time vehicles spent blocked behind other vehicles */
+    private final TravelTimeHistogram blockedHistogram;
+    /* Number of moves made by all vehicles */
+    private final LongAdder moves;
+    /* Sink that receives the live statistics */
+    private StatisticsSink sink;
+    /* Thread reporting the live statistics to the sink */
+    private Thread reporter;
+    /* Clock the live statistics windows are timed with */
+    private final SimulationClock clock;
 
     /**
      * Creates a StatisticCollector object.
      * @param name name of the generator
      */
     public StatisticsCollector(String name) {
+        this(name, true);
+    }
+
+    /**
+     * Creates a StatisticCollector object that may not produce
+     * a report upon program termination.
+     * @param name name of the generator
+     * @param reportOnExit whether to report upon program termination
+     */
+    public StatisticsCollector(String name, boolean reportOnExit) {
         this.name = name;
-        times = new ArrayList<>();
+        count = new LongAdder();
+        offset = new AtomicLong(NO_OFFSET);
+        offsetSum = new LongAdder();
+        offsetSumOfSquares = new DoubleAdder();
+        minTime = new LongAccumulator(Math::min, Long.MAX_VALUE);
+        maxTime = new LongAccumulator(Math::max, Long.MIN_VALUE);
+
+        travelHistogram = new TravelTimeHistogram();
+        sleepHistogram = new TravelTimeHistogram();
+        lockWaitHistogram = new TravelTimeHistogram();
+        blockedHistogram = new TravelTimeHistogram();
+        moves = new LongAdder();
+        clock = SimulationConfig.getClock();
+
+        secondHistograms = new TravelTimeHistogram[RING_SIZE];
+        histogramSeconds = new AtomicLongArray(RING_SIZE);
+        histogramWriters = new AtomicLongArray(RING_SIZE);
+        for (int i = 0; i < RING_SIZE; i++) {
+            secondHistograms[i] = new TravelTimeHistogram();
+            histogramSeconds.set(i, -1);
+        }
+
         //Triggers the run method upon JVM termination
-        Runtime.getRuntime().addShutdownHook(this);
+        if (reportOnExit)
+            Runtime.getRuntime().addShutdownHook(this);
+    }
+
+    /**
+     * Starts a background thread that reports the statistics of
+     * the last 1, 10 and 60 seconds to the given sink every second.
+     * The sink is closed upon program termination, once the
+     * reporting thread has stopped.
+     * @param statsSink StatisticsSink object
+     */
+    public void startLiveReporting(StatisticsSink statsSink) {
+        sink = statsSink;
+        reporter = new Thread(this::reportWindows, "Statistics reporter - " + name);
+        reporter.setDaemon(true);
+        reporter.start();
     }
 
     /**
@@ -32,8 +130,152 @@ public class StatisticsCollector extends Thread {
      * the grid.
      * @param nanoTime vehicle nano time
      */
-    public synchronized void logVehicleTime(long nanoTime) {
-        times.add(nanoTime);
+    public void logVehicleTime(long nanoTime) {
+        count.increment();
+        minTime.accumulate(nanoTime);
+        maxTime.accumulate(nanoTime);
+
+        // Sums relative to the first time logged don't lose the variance to cancellation
+        long base = offset.get();
+        if (base == NO_OFFSET) {
+            offset.compareAndSet(NO_OFFSET, nanoTime);
+            base = offset.get();
+        }
+        long relative = nanoTime - base;
+        offsetSum.add(relative);
+        offsetSumOfSquares.add((double) relative * relative);
+
+        travelHistogram.record(nanoTime);
+        recordSecond(nanoTime);
+    }
+
+    /**
+     * Returns the number of vehicles logged so far.
+     * @return long number of vehicles
+     */
+    public long getVehicleCount() {
+        return count.sum();
+    }
+
+    /**
+     * Returns the travel time at the given percentile of all
+     * vehicles logged so far.
+     * @param percentile percentile between 0 and 100
+     * @return long travel time in nanoseconds, 0 if none were logged
+     */
+    public long getTravelTimePercentile(double percentile) {
+        return travelHistogram.getPercentile(percentile);
+    }
+
+    /**
+     * Adds the bucket counts of the travel times of all vehicles
+     * logged so far to the given array, which must be at least
+     * TravelTimeHistogram.BUCKET_COUNT long.
+     * @param counts array to accumulate the counts into
+     */
+    public void addTravelTimesTo(long[] counts) {
+        travelHistogram.addTo(counts);
+    }
+
+    /**
+     * Logs the time a single vehicle took to traverse the grid
+     * along with the time spent in each phase of its trip.
+     * @param travelTime nano time from spawn to exit
+     * @param sleepTime nano time spent sleeping
+     * @param lockWaitTime nano time spent waiting for the grid's lock
+     * @param blockedTime nano time spent blocked behind other vehicles
+     * @param moveCount number of moves made
+     */
+    public void logVehicleTrip(long travelTime, long sleepTime, long lockWaitTime, long blockedTime, int moveCount) {
+        logVehicleTime(travelTime);
+        sleepHistogram.record(sleepTime);
+        lockWaitHistogram.record(lockWaitTime);
+        blockedHistogram.record(blockedTime);
+        moves.add(moveCount);
+    }
+
+    /**
+     * Records a travel time in the histogram of the current second.
+     * The first caller in a new second reclaims the oldest histogram
+     * of the ring buffer: it marks the slot as resetting, waits for
+     * the loggers already recording into it to finish and clears it.
+     * Loggers announce themselves and check the slot's second again
+     * before recording, so none can record into a histogram while it
+     * is cleared; one that finds it resetting retries once the few
+     * hundred buckets are cleared. Slots only ever move forward in time.
+     * @param nanoTime vehicle nano time
+     */
+    private void recordSecond(long nanoTime) {
+        long second = clock.nanoTime() / 1000000000L;
+        int slot = Math.floorMod(second, RING_SIZE);
+
+        for (;;) {
+            long slotSecond = histogramSeconds.get(slot);
+            if (slotSecond == RESETTING) {
+                Thread.onSpinWait();
+            }
+            // A thread that read the clock long ago must not move the slot back
+            else if (slotSecond > second) {
+                return;
+            }
+            else if (slotSecond < second) {
+                if (histogramSeconds.compareAndSet(slot, slotSecond, RESETTING)) {
+                    while (histogramWriters.get(slot) != 0) {
+                        Thread.onSpinWait();
+                    }
+                    secondHistograms[slot].clear();
+                    histogramSeconds.set(slot, second);
+                }
+            }
+            else {
+                histogramWriters.incrementAndGet(slot);
+                boolean current = histogramSeconds.get(slot) == second;
+                if (current)
+                    secondHistograms[slot].record(nanoTime);
+                histogramWriters.decrementAndGet(slot);
+                if (current)
+                    return;
+            }
+        }
+    }
+
+    /**
+     * Reports the statistics of every window to the sink once a
+     * second. Only fully elapsed seconds are included, so the
+     * histograms read are not being written to anymore.
+     */
+    private void reportWindows() {
+        long[] counts = new long[TravelTimeHistogram.BUCKET_COUNT];
+
+        for (;;) {
+            try {
+                clock.sleep(1000);
+            } catch (InterruptedException e) {
+                return;
+            }
+
+            long currentSecond = clock.nanoTime() / 1000000000L;
+            for (int window : WINDOWS) {
+                Arrays.fill(counts, 0);
+                long windowCount = 0;
+
+                // Merges the histograms of the last seconds of the window
+                for (long second = currentSecond - window; second < currentSecond; second++) {
+                    int slot = Math.floorMod(second, RING_SIZE);
+                    if (histogramSeconds.get(slot) == second) {
+                        secondHistograms[slot].addTo(counts);
+                    }
+                }
+                for (long c : counts) {
+                    windowCount += c;
+                }
+
+                sink.publish(new WindowStatistics(name, System.currentTimeMillis(), window, windowCount,
+                        TravelTimeHistogram.percentileOf(counts, 50),
+                        TravelTimeHistogram.percentileOf(counts, 90),
+                        TravelTimeHistogram.percentileOf(counts, 99)));
+            }
+        }
     }
 
     /**
@@ -41,7 +283,7 @@ public class StatisticsCollector extends Thread {
      * @return double minimum vehicle travel time
      */
     private double getMinAsDouble() {
-        return (double) Collections.min(times);
+        return (double) minTime.get();
     }
 
     /**
@@ -49,7 +291,7 @@ public class StatisticsCollector extends Thread {
      * @return double minimum vehicle travel time
      */
     private double getMaxAsDouble() {
-        return (double) Collections.max(times);
+        return (double) maxTime.get();
     }
 
     /**
@@ -57,13 +299,7 @@ public class StatisticsCollector extends Thread {
      * @return double mean travel time
      */
     private double getMeanAsDouble() {
-        double sum = 0.0;
-
-        for (Long time : times) {
-            sum+= time.doubleValue();
-        }
-
-        return sum/times.size();
+        return offset.get() + (double) offsetSum.sum() / count.sum();
     }
 
     /**
@@ -71,14 +307,22 @@ public class StatisticsCollector extends Thread {
      * @return double variance of travel times
      */
     private double getVarianceAsDouble() {
-        double mean = getMeanAsDouble();
-        double temp = 0.0;
-
-        for (Long time : times) {
-            temp += (time.doubleValue() - mean) * (time.doubleValue() - mean);
-        }
+        double n = count.sum();
+        double relativeMean = offsetSum.sum() / n;
+        return Math.max(0.0, offsetSumOfSquares.sum() / n - relativeMean * relativeMean);
+    }
 
-        return temp/(times.size());
+    /**
+     * Appends the median and 99th percentile of a trip phase
+     * to the report.
+     * @param sb StringBuilder of the report
+     * @param phase name of the phase
+     * @param histogram TravelTimeHistogram of the phase
+     */
+    private void appendPhase(StringBuilder sb, String phase, TravelTimeHistogram histogram) {
+        sb.append(phase).append(" - median : ")
+                .append(String.format("%.5f", histogram.getPercentile(50) / 1000000000.0)).append("s, p99 : ")
+                .append(String.format("%.5f", histogram.getPercentile(99) / 1000000000.0)).append("s\n");
     }
 
     /**
@@ -88,23 +332,51 @@ public class StatisticsCollector extends Thread {
      */
     @Override
     public void run() {
+        // Stops the reporter before closing the sink it publishes to
+        if (reporter != null) {
+            reporter.interrupt();
+            try {
+                reporter.join();
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+            }
+        }
+        if (sink != null)
+            sink.close();
+
         StringBuilder sb = new StringBuilder();
 
         sb.append("\nReport for Generator - ").append(name).append("\n");
         sb.append("========================================\n");
-        sb.append("Number of vehicles generated : ").append(times.size()).append("\n");
+        sb.append("Number of vehicles generated : ").append(count.sum()).append("\n");
+
+        // No travel times to report on
+        if (count.sum() == 0) {
+            System.out.print(sb.toString());
+            return;
+        }
 
-        double min = getMinAsDouble() / 100000000.0;
+        double min = getMinAsDouble() / 1000000000.0;
         sb.append("Minimum travel time : ").append(String.format("%.5f", min)).append("s\n");
 
-        double max = getMaxAsDouble() / 100000000.0;
+        double max = getMaxAsDouble() / 1000000000.0;
         sb.append("Maximum travel time : ").append(String.format("%.5f", max)).append("s\n");
 
-        double mean = getMeanAsDouble() / 100000000.0;
+        double mean = getMeanAsDouble() / 1000000000.0;
         sb.append("Mean travel time : ").append(String.format("%.5f", mean)).append("s\n");
 
-        double variance = getVarianceAsDouble() / 100000000.0;
-        sb.append("Variance of travel times : ").append(String.format("%.5f", variance)).append("\n");
+        double variance = getVarianceAsDouble() / 1000000000000000000.0;
+        sb.append("Variance of travel times : ").append(String.format("%.5f", variance)).append("s^2\n");
+
+        // Trip phase breakdown, only available if vehicles logged their trips
+        if (sleepHistogram.getCount() > 0) {
+            appendPhase(sb, "Sleeping", sleepHistogram);
+            appendPhase(sb, "Waiting for lock", lockWaitHistogram);
+            appendPhase(sb, "Blocked by vehicles", blockedHistogram);
+
+            double meanMoves = (double) moves.sum() / sleepHistogram.getCount();
+            sb.append("Mean moves per vehicle : ").append(String.format("%.2f", meanMoves)).append("\n");
+        }
 
         System.out.print(sb.toString());
     }
@@ -0,0 +1,22 @@
+/**
+ * StatisticsSink is an interface that should be implemented by
+ * a class that wants to receive the live statistics periodically
+ * reported by a StatisticsCollector. Sinks may be shared by several
+ * collectors, so implementations should be thread safe.
+ *
+ * @author Boyan Stoynov
+ */
+public interface StatisticsSink {
+
+    /**
+     * Receives the statistics of a window that has just finished.
+     * @param stats WindowStatistics object
+     */
+    void publish(WindowStatistics stats);
+
+    /**
+     * Flushes and releases any resources held by the sink. This
+     * is called when the simulation terminates.
+     */
+    void close();
+}
@@ -6,8 +6,8 @@
  * @author Boyan Stoynov
  */
 public class TrafficGenerator extends Thread {
-    /* GridSimulator to which the cars are added to */
-    private final GridSimulator grid;
+    /* TrafficNetwork to which the cars are added to */
+    private final TrafficNetwork grid;
     /* Upper bound of the Vehicle speed
     * N.B - lower is faster */
     private final int MAXIMUM_SPEED;
@@ -19,18 +19,23 @@ public class TrafficGenerator extends Thread {
     private final int GENERATION_FREQUENCY;
     /* StatisticCollector monitor */
     private StatisticsCollector statisticsCollector;
+    /* Whether the generator should keep generating traffic */
+    private volatile boolean running = true;
+    /* Clock the generation is timed with */
+    private final SimulationClock clock;
 
     /**
      * Creates a TrafficGenerator object. Maximum and minimum speed
      * for this generator are taken from the configuration class.
-     * @param gs GridSimulator object
+     * @param gs TrafficNetwork object, e.g. a GridSimulator
      * @param frequency frequency of generation
      */
-    public TrafficGenerator(GridSimulator gs, int frequency) {
+    public TrafficGenerator(TrafficNetwork gs, int frequency) {
         grid = gs;
         GENERATION_FREQUENCY = frequency;
         MAXIMUM_SPEED = SimulationConfig.getMaximumSpeed();
         MINIMUM_SPEED = SimulationConfig.getMinimumSpeed();
+        clock = SimulationConfig.getClock();
     }
 
     /**
@@ -38,28 +43,50 @@ public class TrafficGenerator extends Thread {
      * StatisticCollector object. Maximum and minimum
      * speed for this generator are taken from the
      * configuration class.
-     * @param gs GridSimulator object
+     * @param gs TrafficNetwork object, e.g. a GridSimulator
      * @param frequency frequency of generation
      * @param stat StatisticCollector object
      */
-    public TrafficGenerator(GridSimulator gs, int frequency, StatisticsCollector stat) {
+    public TrafficGenerator(TrafficNetwork gs, int frequency, StatisticsCollector stat) {
         grid = gs;
         GENERATION_FREQUENCY = frequency;
         MAXIMUM_SPEED = SimulationConfig.getMaximumSpeed();
         MINIMUM_SPEED = SimulationConfig.getMinimumSpeed();
+        clock = SimulationConfig.getClock();
         statisticsCollector = stat;
     }
 
+    /**
+     * Returns the delay between each Vehicle generated.
+     * @return int milliseconds between vehicles
+     */
+    public int getFrequency() {
+        return GENERATION_FREQUENCY;
+    }
+
+    /**
+     * Stops generating traffic. A Vehicle waiting for a free
+     * entry position is abandoned. Vehicles already on the grid
+     * carry on until they leave it.
+     */
+    public void stopGeneration() {
+        running = false;
+        interrupt();
+    }
+
     /**
      * Starts the thread. Vehicles are generated and put on the
-     * Grid according to the frequency generation.
+     * Grid according to the frequency generation until the
+     * generation is stopped.
      */
     @Override
     public void run() {
-        for (;;) {
+        while (running) {
             try {
-                Thread.sleep(GENERATION_FREQUENCY);
+                clock.sleep(GENERATION_FREQUENCY);
             } catch (InterruptedException e) {
+                if (!running)
+                    break;
                 e.printStackTrace();
             }
 
@@ -74,30 +101,50 @@ public class TrafficGenerator extends Thread {
 
     /**
      * Creates a Vehicle object with random speed, puts it on
-     * the grid, and starts its thread.
+     * the grid, and starts its thread if it was put on the grid.
      */
     private void generateTraffic() {
         Vehicle v = new Vehicle(getRandomSpeed(), grid);
-        grid.addVehicleToGrid(v, this);
-        v.start();
+        if (grid.addVehicleToGrid(v, this)) {
+            commitSpawnEvent(v);
+            v.start();
+        }
     }
 
     /**
      * Creates a Vehicle object with the StatisticCollector monitor
-     * attached to it, puts it on the grid, and starts its thread.
+     * attached to it, puts it on the grid, and starts its thread
+     * if it was put on the grid.
      */
     private void generateMonitoredTraffic() {
         Vehicle v = new Vehicle(getRandomSpeed(), grid, statisticsCollector);
-        grid.addVehicleToGrid(v, this);
-        v.start();
+        if (grid.addVehicleToGrid(v, this)) {
+            commitSpawnEvent(v);
+            v.start();
+        }
+    }
+
+    /**
+     * Commits a VehicleSpawnEvent for a Vehicle that has been
+     * put on the grid.
+     * @param v Vehicle object
+     */
+    private void commitSpawnEvent(Vehicle v) {
+        VehicleSpawnEvent event = new VehicleSpawnEvent();
+        if (event.shouldCommit()) {
+            event.row = v.getPosition().getHorzPosition();
+            event.column = v.getPosition().getVertPosition();
+            event.speed = v.getSpeed();
+            event.commit();
+        }
     }
 
     /**
      * Gets a random speed between the upper and lower bound
-     * defined in the class.
+     * defined in the class, as given to the generated vehicles.
      * @return int random speed
      */
-    private int getRandomSpeed() {
+    public int getRandomSpeed() {
         // Gets a random delay, up to the minimum speed bound
         int randomSpeed = (int) (Math.random() * MINIMUM_SPEED);
 
@@ -0,0 +1,19 @@
+/**
+ * TrafficNetwork is an interface that should be implemented by
+ * a class that models roads Vehicles can traverse and that a
+ * TrafficGenerator can put new Vehicles on.
+ *
+ * @author Boyan Stoynov
+ */
+public interface TrafficNetwork extends Traversable {
+
+    /**
+     * Adds a Vehicle generated by a TrafficGenerator into the
+     * network. Waits for a free entry position unless the calling
+     * thread is interrupted, in which case the Vehicle is not added.
+     * @param vhc Vehicle object
+     * @param tg TrafficGenerator object
+     * @return boolean whether the Vehicle was added
+     */
+    boolean addVehicleToGrid(Vehicle vhc, TrafficGenerator tg);
+}
@@ -0,0 +1,137 @@
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A fixed-size histogram of nanosecond durations. Values are put
+ * in log-linear buckets (8 sub-buckets for every power of two), so
+ * the histogram never allocates after creation and any recorded value
+ * is reproduced within 12.5% by the percentile methods. Recording is
+ * lock-free and can be done from many threads at once.
+ *
+ * @author Boyan Stoynov
+ */
+public class TravelTimeHistogram {
+    /* Number of sub-buckets for each power of two, as a power of two */
+    private static final int SUB_BUCKET_BITS = 3;
+    /* Number of sub-buckets for each power of two */
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    /* Total number of buckets needed to cover all positive longs */
+    public static final int BUCKET_COUNT = (64 - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+    /* Number of values recorded in each bucket */
+    private final AtomicLongArray buckets;
+
+    /**
+     * Creates an empty histogram.
+     */
+    public TravelTimeHistogram() {
+        buckets = new AtomicLongArray(BUCKET_COUNT);
+    }
+
+    /**
+     * Records a single duration. Negative values are
+     * recorded as zero.
+     * @param nanoTime duration in nanoseconds
+     */
+    public void record(long nanoTime) {
+        buckets.incrementAndGet(bucketIndex(nanoTime));
+    }
+
+    /**
+     * Sets every bucket back to zero.
+     */
+    public void clear() {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            buckets.set(i, 0);
+        }
+    }
+
+    /**
+     * Adds the counts of this histogram to the given array,
+     * which must be at least BUCKET_COUNT long.
+     * @param counts array to accumulate the counts into
+     */
+    public void addTo(long[] counts) {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            counts[i] += buckets.get(i);
+        }
+    }
+
+    /**
+     * Returns the number of values recorded in the histogram.
+     * @return long number of values
+     */
+    public long getCount() {
+        long count = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            count += buckets.get(i);
+        }
+        return count;
+    }
+
+    /**
+     * Returns the value at the given percentile of the histogram.
+     * @param percentile percentile between 0 and 100
+     * @return long value in nanoseconds, 0 if the histogram is empty
+     */
+    public long getPercentile(double percentile) {
+        long[] counts = new long[BUCKET_COUNT];
+        addTo(counts);
+        return percentileOf(counts, percentile);
+    }
+
+    /**
+     * Returns the value at the given percentile of an array of
+     * bucket counts as produced by addTo.
+     * @param counts bucket counts
+     * @param percentile percentile between 0 and 100
+     * @return long value in nanoseconds, 0 if there are no counts
+     */
+    public static long percentileOf(long[] counts, double percentile) {
+        long total = 0;
+        for (long count : counts) {
+            total += count;
+        }
+        if (total == 0)
+            return 0;
+
+        // Rank of the wanted value, at least the first one
+        long rank = Math.max(1, (long) Math.ceil(total * percentile / 100.0));
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank)
+                return bucketValue(i);
+        }
+        return bucketValue(counts.length - 1);
+    }
+
+    /**
+     * Returns the bucket a value is recorded in.
+     * @param value value in nanoseconds
+     * @return int bucket index
+     */
+    private static int bucketIndex(long value) {
+        if (value < SUB_BUCKETS)
+            return value < 0 ? 0 : (int) value;
+
+        // Position of the highest set bit decides the power of two
+        int exponent = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        // The next bits below the highest one decide the sub-bucket
+        int subBucket = (int) (value >>> exponent) & (SUB_BUCKETS - 1);
+        return (exponent + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    /**
+     * Returns the value a bucket represents (its lowest value).
+     * @param index bucket index
+     * @return long value in nanoseconds
+     */
+    private static long bucketValue(int index) {
+        if (index < SUB_BUCKETS)
+            return index;
+
+        int exponent = index / SUB_BUCKETS - 1;
+        long subBucket = index % SUB_BUCKETS;
+        return (SUB_BUCKETS + subBucket) << exponent;
+    }
+}
@@ -16,6 +16,26 @@ public class Vehicle extends Thread {
     private final Traversable grid;
     /* StatisticCollector used to monitor the Vehicle */
     private StatisticsCollector statsCollector;
+    /* Nano time spent sleeping to simulate the speed */
+    private long sleepTime;
+    /* Nano time spent waiting to acquire the grid's lock */
+    private long lockWaitTime;
+    /* Nano time spent blocked behind other vehicles */
+    private long blockedTime;
+    /* Number of moves made along the grid */
+    private int moveCount;
+    /* Vehicle occupying the next position while this one waits for it */
+    private volatile Vehicle blockedBy;
+    /* Nano time at which this vehicle got blocked */
+    private volatile long blockedSince;
+    /* Whether the grid has taken this vehicle off to resolve a gridlock */
+    private volatile boolean evicted;
+    /* Nano time at which the trip started, 0 until the thread runs */
+    private volatile long startTime;
+    /* Lane the vehicle is routed to, -1 if it drives straight */
+    private int destination = -1;
+    /* Clock the moves and the trip are timed with */
+    private final SimulationClock clock;
 
     /**
      * Creates a new Vehicle object.
@@ -25,6 +45,7 @@ public class Vehicle extends Thread {
     public Vehicle(int sp, Traversable tr) {
         speed = sp;
         grid = tr;
+        clock = SimulationConfig.getClock();
     }
 
     /**
@@ -36,9 +57,14 @@ public class Vehicle extends Thread {
     public Vehicle(int sp, Traversable tr, StatisticsCollector stats) {
         speed = sp;
         grid = tr;
+        clock = SimulationConfig.getClock();
         statsCollector = stats;
     }
 
+    public int getSpeed() {
+        return speed;
+    }
+
     public void setDirection(Direction direction) {
         this.direction = direction;
     }
@@ -55,35 +81,120 @@ public class Vehicle extends Thread {
         return position;
     }
 
+    public void setDestination(int destination) {
+        this.destination = destination;
+    }
+
+    public int getDestination() {
+        return destination;
+    }
+
+    public long getStartTime() {
+        return startTime;
+    }
+
+    /**
+     * Sets the vehicle this one is waiting behind.
+     * @param blocker Vehicle occupying the next position, null if not blocked
+     * @param since nano time at which this vehicle got blocked
+     */
+    public void setBlockedBy(Vehicle blocker, long since) {
+        blockedBy = blocker;
+        blockedSince = since;
+    }
+
+    public Vehicle getBlockedBy() {
+        return blockedBy;
+    }
+
+    public long getBlockedSince() {
+        return blockedSince;
+    }
+
+    /**
+     * Marks the vehicle as taken off the grid. The vehicle
+     * stops waiting and finishes its trip on its next move.
+     */
+    public void evict() {
+        evicted = true;
+    }
+
+    public boolean isEvicted() {
+        return evicted;
+    }
+
+    /**
+     * Adds to the time spent waiting to acquire the lock of
+     * the grid. Should only be called from the Vehicle's thread.
+     * @param nanoTime time in nanoseconds
+     */
+    public void addLockWaitTime(long nanoTime) {
+        lockWaitTime += nanoTime;
+    }
+
+    /**
+     * Adds to the time spent blocked because the next position
+     * was occupied. Should only be called from the Vehicle's thread.
+     * @param nanoTime time in nanoseconds
+     */
+    public void addBlockedTime(long nanoTime) {
+        blockedTime += nanoTime;
+    }
+
     /**
      * Starts the thread. The vehicle tries to move further
      * if it can after a delay. If the vehicle is not able
      * to move further it removes itself from the grid and
-     * breaks out of the loop.
+     * breaks out of the loop. The time spent in each phase of
+     * the trip is logged once the vehicle has left the grid,
+     * unless it was evicted and never finished the trip.
      */
     @Override
     public void run() {
+        // Nano time at beginning of thread's existence
+        startTime = clock.nanoTime();
+        // Flight Recorder event spanning the whole trip
+        VehicleExitEvent exitEvent = new VehicleExitEvent();
+        exitEvent.begin();
+
         for (;;) {
-            // Nano time at beginning of thread's existence
-            long startTime = System.nanoTime();
             // Simulates the speed by waiting
+            long sleepStart = clock.nanoTime();
             try {
-                Thread.sleep(speed);
+                clock.sleep(speed);
             } catch (InterruptedException e) {
                 e.printStackTrace();
             }
+            sleepTime += clock.nanoTime() - sleepStart;
+
             // Advances position if grid hasn't been traversed
-            if (grid.canMove(this))
+            if (grid.canMove(this)) {
+                Position before = position;
                 grid.advancePosition(this);
+                // Every move sets a new Position, an evicted or stuck vehicle keeps its own
+                if (position != before)
+                    moveCount++;
+            }
                 // Removes vehicle from grid and breaks out of loop
             else {
                 grid.removeVehicle(this);
+                // An evicted trip is not a completed one
+                if (evicted)
+                    break;
 
                 // Estimated time of thread's existence
-                long estimatedTime = System.nanoTime() - startTime;
-                // Log estimated existence time if stats are collected
+                long estimatedTime = clock.nanoTime() - startTime;
+                // Log trip phases if stats are collected
                 if (statsCollector != null)
-                    statsCollector.logVehicleTime(estimatedTime);
+                    statsCollector.logVehicleTrip(estimatedTime, sleepTime, lockWaitTime, blockedTime, moveCount);
+                exitEvent.end();
+                if (exitEvent.shouldCommit()) {
+                    exitEvent.moves = moveCount;
+                    exitEvent.sleepTime = sleepTime;
+                    exitEvent.lockWaitTime = lockWaitTime;
+                    exitEvent.blockedTime = blockedTime;
+                    exitEvent.commit();
+                }
 
                 break;
             }
@@ -0,0 +1,42 @@
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * Flight Recorder event spanning the trip of a Vehicle, committed
+ * when it leaves the network. The event spans the trip in wall-clock
+ * time, as every Flight Recorder event does, while the phases of the
+ * trip are timed with the SimulationClock and are in simulated
+ * nanoseconds. They add up to roughly the duration of the event only
+ * when the clock runs at real time; with a ScaledClock, multiply the
+ * duration by its speed-up before comparing them.
+ *
+ * @author Boyan Stoynov
+ */
+@Name("traffic.VehicleExit")
+@Label("Vehicle Exit")
+@Category({"Traffic Simulation", "Vehicles"})
+@Description("A vehicle has left the network, the event spans its trip")
+@StackTrace(false)
+public class VehicleExitEvent extends jdk.jfr.Event {
+    @Label("Moves")
+    int moves;
+
+    @Label("Sleep Time")
+    @Description("In simulated time")
+    @Timespan(Timespan.NANOSECONDS)
+    long sleepTime;
+
+    @Label("Lock Wait Time")
+    @Description("In simulated time")
+    @Timespan(Timespan.NANOSECONDS)
+    long lockWaitTime;
+
+    @Label("Blocked Time")
+    @Description("In simulated time")
+    @Timespan(Timespan.NANOSECONDS)
+    long blockedTime;
+}
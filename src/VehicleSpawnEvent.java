@@ -0,0 +1,28 @@
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Flight Recorder event committed when a TrafficGenerator has put
+ * a new Vehicle on the network.
+ *
+ * @author Boyan Stoynov
+ */
+@Name("traffic.VehicleSpawn")
+@Label("Vehicle Spawn")
+@Category({"Traffic Simulation", "Vehicles"})
+@Description("A new vehicle has been put on the network")
+@StackTrace(false)
+public class VehicleSpawnEvent extends jdk.jfr.Event {
+    @Label("Row")
+    int row;
+
+    @Label("Column")
+    int column;
+
+    @Label("Speed")
+    @Description("Milliseconds between each move of the vehicle")
+    int speed;
+}
@@ -0,0 +1,73 @@
+/**
+ * Immutable class holding the statistics of a single
+ * generator over a time window that has just finished.
+ *
+ * @author Boyan Stoynov
+ */
+public class WindowStatistics {
+    private final String generatorName;
+    private final long timestamp;
+    private final int windowSeconds;
+    private final long vehicleCount;
+    private final long medianTravelTime;
+    private final long p90TravelTime;
+    private final long p99TravelTime;
+
+    /**
+     * Creates a WindowStatistics object.
+     * @param generatorName name of the generator
+     * @param timestamp end of the window in milliseconds since the epoch
+     * @param windowSeconds length of the window in seconds
+     * @param vehicleCount vehicles that finished during the window
+     * @param medianTravelTime median travel time in nanoseconds
+     * @param p90TravelTime 90th percentile travel time in nanoseconds
+     * @param p99TravelTime 99th percentile travel time in nanoseconds
+     */
+    public WindowStatistics(String generatorName, long timestamp, int windowSeconds, long vehicleCount,
+                            long medianTravelTime, long p90TravelTime, long p99TravelTime) {
+        this.generatorName = generatorName;
+        this.timestamp = timestamp;
+        this.windowSeconds = windowSeconds;
+        this.vehicleCount = vehicleCount;
+        this.medianTravelTime = medianTravelTime;
+        this.p90TravelTime = p90TravelTime;
+        this.p99TravelTime = p99TravelTime;
+    }
+
+    public String getGeneratorName() {
+        return generatorName;
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public int getWindowSeconds() {
+        return windowSeconds;
+    }
+
+    public long getVehicleCount() {
+        return vehicleCount;
+    }
+
+    /**
+     * Returns the number of vehicles that finished
+     * per second during the window.
+     * @return double throughput in vehicles per second
+     */
+    public double getThroughput() {
+        return (double) vehicleCount / windowSeconds;
+    }
+
+    public long getMedianTravelTime() {
+        return medianTravelTime;
+    }
+
+    public long getP90TravelTime() {
+        return p90TravelTime;
+    }
+
+    public long getP99TravelTime() {
+        return p99TravelTime;
+    }
+}